@@ -0,0 +1,40 @@
+package org.willy;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Per-leaf costs: full Zobrist recompute and static evaluation.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvalBenchmark {
+    @Param({"opening", "middlegame", "combo", "endgame"})
+    String category;
+
+    GameState[] positions;
+    AIPlayer ai;
+
+    @Setup
+    public void setup() {
+        positions = Positions.load(category);
+        ai = new AIPlayer(new TranspositionTable(1));
+    }
+
+    @Benchmark
+    public long zobristCompute() {
+        long h = 0;
+        for (GameState s : positions) h ^= Zobrist.compute(s);
+        return h;
+    }
+
+    @Benchmark
+    public int evaluate() {
+        int sum = 0;
+        for (GameState s : positions) sum += ai.evaluate(s);
+        return sum;
+    }
+}
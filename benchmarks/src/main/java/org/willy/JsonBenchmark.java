@@ -0,0 +1,67 @@
+package org.willy;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+// Request/response codec cost per position: a /move body parsed into the reused state and its reply
+// written, and a /get_state reply with every legal move. Run with -prof gc to see the allocation rate.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBenchmark {
+    @Param({"opening", "middlegame", "combo", "endgame"})
+    String category;
+
+    byte[][] bodies;
+    GameState[] positions;
+    final OutputStream sink = OutputStream.nullOutputStream();
+
+    @Setup
+    public void setup() {
+        positions = Positions.load(category);
+        bodies = new byte[positions.length][];
+        for (int i = 0; i < positions.length; i++) {
+            GameState s = positions[i];
+            int[] actions = new int[GameLogic.MAX_MOVES];
+            GameLogic.generate(s, actions, new long[GameLogic.MAX_MOVES]);
+            bodies[i] = JsonUtil.writer().raw("{\"board\":").board(s).raw(",\"player\":").num(s.player)
+                    .raw(",\"inCombo\":").bool(s.inCombo).raw(",\"comboPiece\":").num(s.comboPiece).raw(",\"prevPos\":").num(s.prevPos)
+                    .raw(",\"visited\":").squares(s.visitedMask, false).raw(",\"action_id\":").num(actions[0]).raw("}")
+                    .toString().getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    @Benchmark
+    public long move() throws IOException {
+        long h = 0;
+        for (byte[] b : bodies) {
+            JsonUtil.Reader r = JsonUtil.read(new ByteArrayInputStream(b));
+            GameState s = r.state();
+            boolean win = GameLogic.make(s, r.actionId, GameLogic.victimsOf(s, r.actionId));
+            JsonUtil.Writer w = JsonUtil.writer().raw("{\"board\":").board(s).raw(",\"player\":").num(s.player)
+                    .raw(",\"win\":").bool(win).raw(",\"visited\":").squares(s.visitedMask, false).raw("}");
+            w.writeTo(sink);
+            h += w.length();
+        }
+        return h;
+    }
+
+    @Benchmark
+    public long getState() throws IOException {
+        long h = 0;
+        for (GameState s : positions) {
+            JsonUtil.Writer w = JsonUtil.writer().raw("{\"moves\": ").moves(s).raw("}");
+            w.writeTo(sink);
+            h += w.length();
+        }
+        return h;
+    }
+}
@@ -0,0 +1,38 @@
+package org.willy;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MoveGenBenchmark {
+    @Param({"opening", "middlegame", "combo", "endgame"})
+    String category;
+
+    GameState[] positions;
+    final int[] actions = new int[GameLogic.MAX_MOVES];
+    final long[] victims = new long[GameLogic.MAX_MOVES];
+
+    @Setup
+    public void setup() {
+        positions = Positions.load(category);
+    }
+
+    @Benchmark
+    public void detailedMoves(Blackhole bh) {
+        for (GameState s : positions) bh.consume(GameLogic.getDetailedMoves(s));
+    }
+
+    @Benchmark
+    public int generate() {
+        int n = 0;
+        for (GameState s : positions) n += GameLogic.generate(s, actions, victims);
+        return n;
+    }
+}
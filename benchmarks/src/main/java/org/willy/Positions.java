@@ -0,0 +1,37 @@
+package org.willy;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// Committed benchmark suite: one "<category> <position json>" per line, in the GameLogic.fromJson shape.
+class Positions {
+    static final String FILE = "positions.txt";
+
+    static {
+        GameLogic.initTables();
+        Zobrist.init();
+    }
+
+    static GameState[] load(String category) {
+        List<GameState> list = new ArrayList<>();
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(
+                Positions.class.getClassLoader().getResourceAsStream(FILE), StandardCharsets.UTF_8))) {
+            String l;
+            while ((l = r.readLine()) != null) {
+                int sp = l.indexOf(' ');
+                if (sp < 0) continue;
+                if (category.equals("all") || category.equals(l.substring(0, sp)))
+                    list.add(GameLogic.fromJson(l.substring(sp + 1)));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (list.isEmpty()) throw new IllegalArgumentException("No positions for " + category);
+        return list.toArray(new GameState[0]);
+    }
+}
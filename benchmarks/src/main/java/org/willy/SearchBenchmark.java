@@ -0,0 +1,48 @@
+package org.willy;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Fixed-depth negascout from an empty table, so results don't depend on fanorona_memory.dat.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SearchBenchmark {
+    @Param({"opening", "middlegame", "combo", "endgame"})
+    String category;
+
+    @Param({"6"})
+    int depth;
+
+    // Selective features to switch off, as in --disable; "none" measures the default configuration.
+    @Param({"none", "null,lmr,futility,razor,aspiration,killers"})
+    String disable;
+
+    GameState[] positions;
+    TranspositionTable tt;
+    AIPlayer ai;
+
+    @Setup
+    public void setup() {
+        positions = Positions.load(category);
+        tt = new TranspositionTable(16);
+    }
+
+    @Setup(Level.Invocation)
+    public void clearTable() {
+        tt.clear();
+        ai = new AIPlayer(tt);
+        ai.config = SearchConfig.parse(disable);
+    }
+
+    @Benchmark
+    public int negascout() {
+        int sum = 0;
+        for (GameState s : positions) sum += ai.search(s, depth);
+        return sum;
+    }
+}
@@ -0,0 +1,55 @@
+package org.willy;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+// Applies every legal move of every position once per invocation.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StepBenchmark {
+    @Param({"opening", "middlegame", "combo", "endgame"})
+    String category;
+
+    GameState[] positions;
+    int[][] actions;
+    long[][] victims;
+    final long[] undo = new long[GameState.UNDO];
+
+    @Setup
+    public void setup() {
+        positions = Positions.load(category);
+        actions = new int[positions.length][GameLogic.MAX_MOVES];
+        victims = new long[positions.length][GameLogic.MAX_MOVES];
+        for (int i = 0; i < positions.length; i++) {
+            int n = GameLogic.generate(positions[i], actions[i], victims[i]);
+            actions[i] = java.util.Arrays.copyOf(actions[i], n);
+        }
+    }
+
+    @Benchmark
+    public void step(Blackhole bh) {
+        for (int i = 0; i < positions.length; i++)
+            for (int a : actions[i]) bh.consume(GameLogic.step(positions[i], a));
+    }
+
+    @Benchmark
+    public long makeUnmake() {
+        long h = 0;
+        for (int i = 0; i < positions.length; i++) {
+            GameState s = positions[i];
+            for (int j = 0; j < actions[i].length; j++) {
+                s.save(undo, 0);
+                GameLogic.make(s, actions[i][j], victims[i][j]);
+                h ^= s.zobristHash;
+                s.restore(undo, 0);
+            }
+        }
+        return h;
+    }
+}
@@ -0,0 +1,61 @@
+package org.willy;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+
+class AIHandler implements Sessions.SessionHandler {
+    public void handle(HttpExchange ex, AIPlayer ai) throws IOException {
+        GameState state = Wire.position(ex);
+        if (!ai.searching.compareAndSet(false, true)) {
+            HttpUtil.sendJson(ex, 409, "{\"error\":\"Session busy: a search is already running\"}");
+            return;
+        }
+        // A ponder hit is already running on a search worker; it only needs its deadline.
+        if (ai.promotePonder(state, FanoronaServer.Time_LIMIT, null, res -> {
+            try {
+                if (res != null) send(ex, res);
+                else HttpUtil.sendJson(ex, "{\"error\":\"AI Logic Error\"}");
+            } catch (IOException ignored) {
+            } finally {
+                ai.searching.set(false);
+            }
+        }) != null) return;
+        SearchExecutor searches = FanoronaServer.searches;
+        boolean queued = searches.submit(ai, wait -> {
+            try {
+                long budget = searches.budget(wait, FanoronaServer.Time_LIMIT);
+                if (budget < 0) {
+                    HttpUtil.sendJson(ex, 503, "{\"error\":\"Search queue timeout\"}");
+                    return;
+                }
+                AIPlayer.AIResult res;
+                synchronized (ai) {
+                    res = ai.think(state, budget);
+                }
+                send(ex, res);
+            } catch (Exception e) {
+                e.printStackTrace();
+                try {
+                    HttpUtil.sendJson(ex, "{\"error\":\"AI Logic Error\"}");
+                } catch (IOException ignored) {
+                }
+            }
+        });
+        if (!queued) HttpUtil.sendJson(ex, 503, "{\"error\":\"Server busy\"}");
+    }
+
+    private static void send(HttpExchange ex, AIPlayer.AIResult res) throws IOException {
+        if (Wire.wanted(ex)) Wire.writer().u16(res.bestMove).i32(res.score).str(res.strategy).str(res.pv).send(ex);
+        else HttpUtil.sendJson(ex, write(JsonUtil.writer(), res));
+    }
+
+    static String toJson(AIPlayer.AIResult res) {
+        return write(JsonUtil.writer(), res).toString();
+    }
+
+    private static JsonUtil.Writer write(JsonUtil.Writer w, AIPlayer.AIResult res) {
+        return w.raw("{\"action_id\": ").num(res.bestMove).raw(", \"score\": ").num(res.score)
+                .raw(", \"strategy\": ").str(res.strategy).raw(", \"pv\": ").str(res.pv).raw("}");
+    }
+}
@@ -1,46 +1,72 @@
 package org.willy;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 import static org.willy.FanoronaServer.*;
 
 class AIPlayer {
     private int lastScore = 0;
     private int pendingAIMove = -1;
+    // Per-engine overrides for offline tools that run several differently configured players.
+    int maxDepth = MAX_DEPTH, threads = THREADS;
+    boolean verbose = true, pondering = PONDER, useBook = true;
+    // Whether think ages the TT; tools running many searches over one table age it once per batch instead.
+    boolean ageTable = true;
+    SearchConfig config = SEARCH;
+    // Claimed while a search of this session is queued or running (see SearchExecutor.submit(AIPlayer, Job)).
+    final AtomicBoolean searching = new AtomicBoolean();
+    Evaluator evaluator = EVAL;
 
     static void setupPersistence() {
-        Executors.newSingleThreadScheduledExecutor().scheduleAtFixedRate(() -> FanoronaServer.aiPlayer.saveMemory(FanoronaServer.MEMORY_FILE), 1, 1, TimeUnit.MINUTES);
+        Executors.newSingleThreadScheduledExecutor().scheduleAtFixedRate(() -> checkpointMemory(FanoronaServer.tt, FanoronaServer.MEMORY_FILE), 1, 1, TimeUnit.MINUTES);
     }
 
-    static class TTEntry {
-        long key;
-        int depth, score, flag, bestMove;
+    // History learned by finished games; new sessions start from it and it is what gets persisted.
+    private static final int[][] seedHistory = new int[46][46];
 
-        public TTEntry(long k, int d, int s, int f, int m) {
-            key = k;
-            depth = d;
-            score = s;
-            flag = f;
-            bestMove = m;
-        }
-    }
-
-    private final Map<Long, TTEntry> tt = new ConcurrentHashMap<>(300000);
-    private final int[][] history = new int[46][46];
+    private final TranspositionTable tt;
+    private final int[][] history;
     private final List<Long> globalHistory = Collections.synchronizedList(new ArrayList<>());
     private int lastPredictedOpponentMove = -1;
     private String lastPredFeedback = "Initial";
 
+    AIPlayer(TranspositionTable tt) {
+        this.tt = tt;
+        synchronized (seedHistory) {
+            history = copyOf(seedHistory);
+        }
+    }
+
+    // Called when a session is evicted: its move-ordering history is averaged into the seed for new games,
+    // so every finished game counts and older ones fade, whichever session happens to be evicted last.
+    synchronized void retire() {
+        cancelPonder();
+        synchronized (seedHistory) {
+            for (int r = 0; r < 46; r++)
+                for (int c = 0; c < 46; c++) seedHistory[r][c] = (int) (((long) seedHistory[r][c] + history[r][c]) / 2);
+            seedVersion++;
+        }
+    }
+
     public void recordState(long h) {
         globalHistory.add(h);
         if (globalHistory.size() > 500) globalHistory.removeFirst();
     }
 
     public void resetGame() {
+        cancelPonder();
         globalHistory.clear();
         lastPredFeedback = "Reset";
         lastPredictedOpponentMove = -1;
@@ -49,6 +75,8 @@ class AIPlayer {
     static class AIResult {
         int bestMove, score;
         String pv, strategy;
+        int depth;
+        long nodes;
 
         public AIResult(int m, int s, String p, String st) {
             bestMove = m;
@@ -58,108 +86,449 @@ class AIPlayer {
         }
     }
 
+    // Shared by every thread of one Lazy SMP search. The deadline moves when a ponder search is promoted.
+    static class StopFlag {
+        volatile boolean set;
+        // Set along with set when the result is thrown away: think then returns null and leaves the session as it was.
+        volatile boolean cancelled;
+        volatile long end;
+        // Node budget per search thread, for fixed-effort analysis.
+        long maxNodes = Long.MAX_VALUE;
+
+        StopFlag(long end) {
+            this.end = end;
+        }
+    }
+
+    // Called on the main search thread after every completed iteration.
+    interface Progress {
+        void iteration(int depth, int score, int bestMove, long nodes, long elapsedMs);
+    }
+
     static class SearchContext {
-        long start, end;
+        final long start;
+        Progress progress;
         boolean stop;
-        long nodes, ttHits, rootNodesBest;
-
-        SearchContext(long t) {
+        long nodes, ttHits, tbHits, rootNodesBest, iterationStartNodes;
+        // Quiescence: nodes, stand-pat cutoffs and captures skipped by delta pruning.
+        long qNodes, qStandPat, qDelta;
+        // Selectivity: null-move tries and cutoffs, late moves reduced and re-searched, futility and razor
+        // prunes, aspiration re-searches, and beta cutoffs by a killer.
+        long nullTries, nullCuts, lmrReduced, lmrResearched, futilityPruned, razored, aspirationFails, killerCuts;
+        final StopFlag flag;
+        final int[][] history;
+        int id, depth, bestMove, score, rootMove;
+        String stopReason;
+        // Per-ply move buffers and unmake snapshots, grown on demand so the search itself never allocates.
+        int[][] moves = new int[0][];
+        long[][] victims = new long[0][];
+        int[][] keys = new int[0][];
+        long[][] undo = new long[0][];
+        // Two quiet moves per ply that last caused a cutoff, and whether the move into that ply was a pass.
+        int[][] killers = new int[0][];
+        boolean[] passed = new boolean[0];
+
+        SearchContext(StopFlag flag, int[][] history) {
             start = System.currentTimeMillis();
-            end = start + t;
+            this.flag = flag;
+            this.history = history;
+            ensure(63);
+        }
+
+        void ensure(int ply) {
+            if (ply < moves.length) return;
+            int old = moves.length, n = Math.max(64, (ply + 1) * 2);
+            moves = Arrays.copyOf(moves, n);
+            victims = Arrays.copyOf(victims, n);
+            keys = Arrays.copyOf(keys, n);
+            undo = Arrays.copyOf(undo, n);
+            killers = Arrays.copyOf(killers, n);
+            passed = Arrays.copyOf(passed, n);
+            for (int i = old; i < n; i++) {
+                killers[i] = new int[]{-1, -1};
+                moves[i] = new int[GameLogic.MAX_MOVES];
+                victims[i] = new long[GameLogic.MAX_MOVES];
+                keys[i] = new int[GameLogic.MAX_MOVES];
+                undo[i] = new long[GameState.UNDO];
+            }
         }
 
         void check() {
-            if ((nodes++ & 4095) == 0 && System.currentTimeMillis() > end) stop = true;
+            if ((nodes++ & 4095) == 0 && (System.currentTimeMillis() > flag.end || flag.set || nodes > flag.maxNodes)) stop = true;
         }
     }
 
+    private static final ExecutorService HELPERS = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "search-helper");
+        t.setDaemon(true);
+        return t;
+    });
+
     public AIResult think(GameState root) {
+        return think(root, Time_LIMIT);
+    }
+
+    public AIResult think(GameState root, long timeMs) {
+        return think(root, new StopFlag(System.currentTimeMillis() + timeMs), null);
+    }
+
+    // Setting flag.set ends the search early with the best move of the last completed iteration.
+    AIResult think(GameState root, StopFlag flag, Progress progress) {
+        AIResult booked = fromBook(root);
+        if (booked != null) return booked;
+        if (ageTable) tt.newSearch();
+        SearchContext[] ctxs = run(root, history, flag, progress);
+        if (flag.cancelled) return null;
+        if (ctxs == null) return new AIResult(720, -FanoronaServer.MATE_SCORE, "Surrender", "Resign");
+        return finish(root, ctxs);
+    }
+
+    // Runs the search until the flag's deadline or stop. Index 0 is the main context; null when there is no legal move.
+    // The evaluator attaches to a copy: the caller's state may be shared, e.g. with a Game or another search.
+    private SearchContext[] run(GameState position, int[][] history, StopFlag flag, Progress progress) {
+        GameState root = position.copy();
+        evaluator.attach(root);
         int myC = Long.bitCount(root.myPieces), oppC = Long.bitCount(root.oppPieces);
-        SearchContext ctx = new SearchContext(Time_LIMIT);
+        SearchContext ctx = new SearchContext(flag, history);
+        ctx.progress = progress;
 
         List<Move> moves = GameLogic.getDetailedMoves(root);
-        if (moves.isEmpty()) return new AIResult(720, -FanoronaServer.MATE_SCORE, "Surrender", "Resign");
-
-        int bestMove = moves.get(0).actionId;
-        int score = 0;
-        String stopReason = "MaxDepth";
+        if (moves.isEmpty()) return null;
         moves.sort((a, b) -> b.victims.size() - a.victims.size());
 
         boolean amWinning = myC > oppC + 1;
 
-        long iterationStartNodes = 0;
-        for (int d = 1; d <= 1000; d++) {
+        // Lazy SMP: helpers share only the TT and the stop flag; each has its own history and ply buffers.
+        SearchContext[] ctxs = new SearchContext[Math.max(1, threads)];
+        ctxs[0] = ctx;
+        List<Future<?>> running = new ArrayList<>();
+        for (int i = 1; i < ctxs.length; i++) {
+            SearchContext h = new SearchContext(flag, copyOf(history));
+            h.id = i;
+            ctxs[i] = h;
+            List<Move> hm = new ArrayList<>(moves);
+            running.add(HELPERS.submit(() -> iterate(h, root, hm, amWinning)));
+        }
+        iterate(ctx, root, moves, amWinning);
+        flag.set = true;
+        for (Future<?> f : running) {
+            try {
+                f.get();
+            } catch (InterruptedException | ExecutionException e) {
+                e.printStackTrace();
+            }
+        }
+        return ctxs;
+    }
+
+    private AIResult finish(GameState root, SearchContext[] ctxs) {
+        SearchContext ctx = ctxs[0], best = ctx;
+        long nodes = 0, ttHits = 0, tbHits = 0, qNodes = 0, qStandPat = 0, qDelta = 0;
+        // Selectivity is summed like the node counts it is read against.
+        long nullTries = 0, nullCuts = 0, lmrReduced = 0, lmrResearched = 0, futilityPruned = 0, razored = 0, aspirationFails = 0, killerCuts = 0;
+        for (SearchContext h : ctxs) {
+            nodes += h.nodes;
+            ttHits += h.ttHits;
+            tbHits += h.tbHits;
+            qNodes += h.qNodes;
+            qStandPat += h.qStandPat;
+            qDelta += h.qDelta;
+            nullTries += h.nullTries;
+            nullCuts += h.nullCuts;
+            lmrReduced += h.lmrReduced;
+            lmrResearched += h.lmrResearched;
+            futilityPruned += h.futilityPruned;
+            razored += h.razored;
+            aspirationFails += h.aspirationFails;
+            killerCuts += h.killerCuts;
+            if (h.depth > best.depth) best = h;
+        }
+        int bestMove = best.bestMove, score = best.score;
+
+        double hits = (ttHits * 100.0) / Math.max(1, nodes);
+        long nodesInThisIteration = ctx.nodes - ctx.iterationStartNodes;
+        double rootPct = (ctx.rootNodesBest * 100.0) / Math.max(1, nodesInThisIteration);
+        double nps = nodes / (Math.max(1, System.currentTimeMillis() - ctx.start) / 1000.0);
+
+        GameLogic.StepResult resFinal = GameLogic.step(root, bestMove);
+        long nextE = tt.probe(resFinal.state.zobristHash);
+        lastPredictedOpponentMove = (nextE != 0) ? TranspositionTable.move(nextE) : -1;
+        // The main thread's own tree: helpers search staggered depths, so a summed count has no single depth.
+        double ebf = Math.pow(Math.max(1, ctx.nodes), 1.0 / Math.max(1, ctx.depth));
+        String statsLog = String.format("[%s] D:%d N:%dk NPS:%.0fk EBF:%.2f | Hits:%.0f%% | Q:%.0f%% SP:%d Dlt:%d | Null:%d/%d LMR:%d/%d Fut:%d Raz:%d Asp:%d Kil:%d | TB:%d | Root:%.0f%% | Pred:%s",
+                ctx.stopReason, getDepth(root), nodes / 1000, nps / 1000, ebf, hits, qNodes * 100.0 / Math.max(1, nodes), qStandPat, qDelta,
+                nullCuts, nullTries, lmrResearched, lmrReduced, futilityPruned, razored, aspirationFails, killerCuts, tbHits, rootPct, lastPredFeedback) + " | " + getNarrativePV(root, bestMove, MAX_DEPTH);
+        AIResult result = respond(bestMove, score, statsLog);
+        result.depth = best.depth;
+        result.nodes = nodes;
+        if (!resFinal.win && resFinal.state.player != root.player) startPonder(resFinal.state);
+        return result;
+    }
+
+    private AIResult respond(int bestMove, int score, String statsLog) {
+        if (verbose) System.out.println("> " + statsLog);
+        String strategy = getStrategy(score);
+        lastScore = score;
+        pendingAIMove = bestMove;
+        if (HIDE_DETAILED_LOG) {
+            boolean isMate = Math.abs(score) > FanoronaServer.MATE_THRESHOLD;
+            String aiMessage = getTrashTalk(score, lastScore, isMate, lastPredFeedback);
+            return new AIResult(bestMove, score, aiMessage, strategy);
+        }
+        return new AIResult(bestMove, score, statsLog, strategy);
+    }
+
+    // Book moves are played without searching. The move must still be legal here, since two
+    // positions can share a 64-bit key.
+    private AIResult fromBook(GameState root) {
+        OpeningBook b = useBook ? book : null;
+        int i = b == null ? -1 : b.find(root.zobristHash);
+        if (i < 0) return null;
+        int m = b.move(i);
+        if (GameLogic.getDetailedMoves(root).stream().noneMatch(x -> x.actionId == m)) return null;
+        GameState next = GameLogic.step(root, m).state;
+        int j = b.find(next.zobristHash);
+        long nextE = tt.probe(next.zobristHash);
+        lastPredictedOpponentMove = j >= 0 ? b.move(j) : nextE != 0 ? TranspositionTable.move(nextE) : -1;
+        AIResult result = respond(m, b.score(i), String.format("[Book] D:%d | Pred:%s", b.depth(i), lastPredFeedback) + " | " + getNarrativePV(root, m, MAX_DEPTH));
+        result.depth = b.depth(i);
+        return result;
+    }
+
+    // Background search on the position the AI expects to face next: the opponent's turn is
+    // followed along the TT moves until it is the AI's move again. Every opponent action in
+    // /move is checked against that line; the next /ai promotes the search if all of it was played.
+    // It orders moves with its own copy of the history table, which replaces the session's on promotion.
+    private static class Ponder {
+        final StopFlag flag;
+        final GameState root;
+        final int[] line;
+        final int[][] history;
+        final long started = System.currentTimeMillis();
+        final CompletableFuture<SearchContext[]> result = new CompletableFuture<>();
+        // Taken by whichever comes first, the worker starting the search or a cancel; a cancel that wins never waits.
+        final AtomicBoolean claimed = new AtomicBoolean();
+        // Where the iterations go once the search is promoted; none before.
+        volatile Progress progress;
+        int matched;
+
+        Ponder(StopFlag flag, GameState root, int[] line, int[][] history) {
+            this.flag = flag;
+            this.root = root;
+            this.line = line;
+            this.history = history;
+        }
+    }
+
+    private Ponder ponder;
+
+    // The opponent's moves the current ponder search expects, or null when none is running.
+    int[] ponderLine() {
+        Ponder p = ponder;
+        return p == null ? null : p.line.clone();
+    }
+
+    private void startPonder(GameState s) {
+        cancelPonder();
+        if (!pondering || searches == null) return;
+        int[] line = new int[16], legal = new int[GameLogic.MAX_MOVES];
+        long[] victims = new long[GameLogic.MAX_MOVES];
+        int n = 0, me = -s.player;
+        GameState cur = s;
+        while (cur.player != me) {
+            long e = tt.probe(cur.zobristHash);
+            int m = e != 0 ? TranspositionTable.move(e) : -1, k = GameLogic.generate(cur, legal, victims);
+            while (--k >= 0 && legal[k] != m) ;
+            if (k < 0 || n == line.length) return;
+            GameLogic.StepResult r = GameLogic.step(cur, m);
+            if (r.win) return;
+            line[n++] = m;
+            cur = r.state;
+        }
+        GameState root = cur;
+        // Capped so a player who walks away cannot hold a search worker forever.
+        Ponder p = new Ponder(new StopFlag(System.currentTimeMillis() + 20L * Time_LIMIT), root, Arrays.copyOf(line, n), copyOf(history));
+        tt.newSearch();
+        boolean started = searches.submitBackground(p.flag, () -> {
+            if (!p.claimed.compareAndSet(false, true)) return;
+            try {
+                p.result.complete(p.flag.set ? null : run(root, p.history, p.flag, (depth, score, move, nodes, elapsed) -> {
+                    Progress to = p.progress;
+                    if (to != null) to.iteration(depth, score, move, nodes, elapsed);
+                }));
+            } catch (Throwable t) {
+                p.result.completeExceptionally(t);
+            }
+        });
+        if (started) ponder = p;
+    }
+
+    // Stops the ponder search. It shares nothing with the next search but the TT, so nobody waits for it;
+    // one still queued (behind the search worker of a caller that holds this session) never starts.
+    private void cancelPonder() {
+        Ponder p = ponder;
+        ponder = null;
+        if (p == null) return;
+        p.flag.set = true;
+        p.claimed.set(true);
+    }
+
+    // When root is the pondered position, gives the running ponder search the think budget counted from when
+    // pondering began, sends its further iterations to progress, and returns its flag: setting it stops the
+    // search like any think's, and cancelling it makes the result null. done then gets the result (null if the
+    // search failed or was cancelled) holding this session, on the thread that ends the search, so no caller
+    // waits for it under the session lock. A ponder that ended without a completed iteration is searched again
+    // on the executor, under the same flag: the future may already be complete, and then whenComplete runs on
+    // the caller's thread. Null, after cancelling any stale ponder, when root is not the pondered position or
+    // the ponder never started.
+    StopFlag promotePonder(GameState root, long timeMs, Progress progress, Consumer<AIResult> done) {
+        Ponder p = ponder;
+        if (p == null) return null;
+        // Promoted, the search is no longer background work for the executor to preempt.
+        searches.foreground(p.flag);
+        if (p.matched != p.line.length || p.root.zobristHash != root.zobristHash || p.flag.set) {
+            cancelPonder();
+            return null;
+        }
+        ponder = null;
+        if (p.claimed.compareAndSet(false, true)) return null;
+        p.progress = progress;
+        p.flag.end = Math.max(System.currentTimeMillis(), p.started + timeMs);
+        p.result.whenComplete((ctxs, err) -> {
+            if (p.flag.cancelled) {
+                synchronized (this) {
+                    done.accept(null);
+                }
+                return;
+            }
+            if (ctxs == null || ctxs[0].depth == 0) {
+                boolean queued = searches.submit(wait -> {
+                    synchronized (this) {
+                        AIResult res = null;
+                        try {
+                            p.flag.end = Math.max(p.flag.end, System.currentTimeMillis() + timeMs / 10);
+                            res = think(root, p.flag, progress);
+                        } catch (RuntimeException e) {
+                            e.printStackTrace();
+                        }
+                        done.accept(res);
+                    }
+                });
+                if (!queued) synchronized (this) {
+                    done.accept(null);
+                }
+                return;
+            }
+            synchronized (this) {
+                AIResult res = null;
+                try {
+                    for (int r = 0; r < history.length; r++) System.arraycopy(p.history[r], 0, history[r], 0, history[r].length);
+                    ctxs[0].stopReason = "Ponder/" + ctxs[0].stopReason;
+                    res = finish(root, ctxs);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+                done.accept(res);
+            }
+        });
+        return p.flag;
+    }
+
+    private static int[][] copyOf(int[][] t) {
+        int[][] c = new int[t.length][];
+        for (int i = 0; i < t.length; i++) c[i] = t[i].clone();
+        return c;
+    }
+
+    // Iterative deepening over the root moves. Helpers start at staggered depths and
+    // rotate the non-PV root moves so threads spread out over different subtrees.
+    private void iterate(SearchContext ctx, GameState root, List<Move> moves, boolean amWinning) {
+        ctx.bestMove = moves.get(0).actionId;
+        ctx.stopReason = "MaxDepth";
+        for (int d = 1 + ctx.id % 3; d <= maxDepth; d++) {
             ctx.rootNodesBest = 0;
-            iterationStartNodes = ctx.nodes;
+            ctx.iterationStartNodes = ctx.nodes;
             if (d > 1) {
-                final int lastBest = bestMove; // Best action ID
+                final int lastBest = ctx.bestMove; // Best action ID
                 moves.sort((a, b) -> {
                     if (a.actionId == lastBest) return -1; // Put it at the front
                     if (b.actionId == lastBest) return 1;
                     return b.victims.size() - a.victims.size();
                 });
             }
-
-            int alpha = -FanoronaServer.INF, beta = FanoronaServer.INF;
-            int bestS = -FanoronaServer.INF, bestM = moves.get(0).actionId;
-
-            for (int i = 0; i < moves.size(); i++) {
-                Move m = moves.get(i);
-                GameLogic.StepResult res = GameLogic.step(root, m.actionId);
-
-                boolean isLoop = globalHistory.contains(res.state.zobristHash);
-                int cur;
-                if (isLoop) {
-                    cur = amWinning ? -25000 : 0;
-                } else {
-                    if (res.state.player == root.player) cur = negascout(ctx, res.state, d, alpha, beta);
-                    else cur = -negascout(ctx, res.state, d - 1, -beta, -alpha);
-                }
-
-                if (ctx.stop) break;
-                if (i == 0) ctx.rootNodesBest += (ctx.nodes - iterationStartNodes);
-                if (cur > bestS) {
-                    bestS = cur;
-                    bestM = m.actionId;
-                }
-                alpha = Math.max(alpha, cur);
-                if (alpha >= beta) break;
+            if (ctx.id > 0 && moves.size() > 2) Collections.rotate(moves.subList(1, moves.size()), ctx.id);
+
+            // Aspiration: a narrow window around the last score. The side a result falls outside of is
+            // widened fourfold and searched again, and opened fully once it passes a few pieces.
+            boolean narrow = config.aspiration && d >= 4 && Math.abs(ctx.score) < FanoronaServer.MATE_THRESHOLD;
+            int delta = config.aspirationWindow;
+            int alpha = narrow ? ctx.score - delta : -FanoronaServer.INF;
+            int beta = narrow ? ctx.score + delta : FanoronaServer.INF;
+            int bestS;
+            while (true) {
+                bestS = searchRoot(ctx, root, moves, d, alpha, beta, amWinning);
+                if (ctx.stop || (bestS > alpha && bestS < beta)) break;
+                if (alpha == -FanoronaServer.INF && beta == FanoronaServer.INF) break;
+                ctx.aspirationFails++;
+                ctx.rootNodesBest = 0;
+                ctx.iterationStartNodes = ctx.nodes;
+                delta *= 4;
+                if (bestS <= alpha) alpha = delta > 1000 ? -FanoronaServer.INF : ctx.score - delta;
+                else beta = delta > 1000 ? FanoronaServer.INF : ctx.score + delta;
             }
+            int bestM = ctx.rootMove;
 
             if (ctx.stop) {
-                stopReason = "Time";
+                ctx.stopReason = ctx.id == 0 && ctx.flag.set ? "Stopped" : "Time";
                 break;
             }
-            score = bestS;
-            bestMove = bestM;
-            tt.put(root.zobristHash, new TTEntry(root.zobristHash, d, score, 0, bestMove));
-            if (Math.abs(score) > FanoronaServer.MATE_THRESHOLD) {
-                stopReason = "Mate";
+            ctx.score = bestS;
+            ctx.bestMove = bestM;
+            ctx.depth = d;
+            tt.store(root.zobristHash, d, ctx.score, TranspositionTable.EXACT, ctx.bestMove);
+            if (ctx.progress != null) ctx.progress.iteration(d, bestS, bestM, ctx.nodes, System.currentTimeMillis() - ctx.start);
+            if (Math.abs(ctx.score) > FanoronaServer.MATE_THRESHOLD) {
+                ctx.stopReason = "Mate";
                 break;
             }
         }
+    }
 
-        double hits = (ctx.ttHits * 100.0) / Math.max(1, ctx.nodes);
-        long nodesInThisIteration = ctx.nodes - iterationStartNodes;
-        double rootPct = (ctx.rootNodesBest * 100.0) / Math.max(1, nodesInThisIteration);
-        double nps = ctx.nodes / (Math.max(1, System.currentTimeMillis() - ctx.start) / 1000.0);
+    // One pass over the root moves in [alpha, beta]; the best move is left in ctx.rootMove.
+    private int searchRoot(SearchContext ctx, GameState root, List<Move> moves, int d, int alpha, int beta, boolean amWinning) {
+        int bestS = -FanoronaServer.INF;
+        ctx.rootMove = moves.get(0).actionId;
+        for (int i = 0; i < moves.size(); i++) {
+            Move m = moves.get(i);
+            GameLogic.StepResult res = GameLogic.step(root, m.actionId);
 
-        GameLogic.StepResult resFinal = GameLogic.step(root, bestMove);
-        TTEntry nextE = tt.get(resFinal.state.zobristHash);
-        lastPredictedOpponentMove = (nextE != null) ? nextE.bestMove : -1;
-        String statsLog = String.format("[%s] D:%d N:%dk NPS:%.0fk | Hits:%.0f%% | Root:%.0f%% | Pred:%s", stopReason, getDepth(root), ctx.nodes / 1000, nps / 1000, hits, rootPct, lastPredFeedback) + " | " + getNarrativePV(root, bestMove, MAX_DEPTH);
-        System.out.println("> " + statsLog);
+            boolean isLoop = globalHistory.contains(res.state.zobristHash);
+            int cur;
+            if (isLoop) {
+                cur = amWinning ? -25000 : 0;
+            } else {
+                if (res.state.player == root.player) cur = negascout(ctx, res.state, 1, d, alpha, beta);
+                else cur = -negascout(ctx, res.state, 1, d - 1, -beta, -alpha);
+            }
 
-        String strategy = getStrategy(score);
-        lastScore = score;
-        pendingAIMove = bestMove;
-        if (HIDE_DETAILED_LOG) {
-            boolean isMate = Math.abs(score) > FanoronaServer.MATE_THRESHOLD;
-            String aiMessage = getTrashTalk(score, lastScore, isMate, lastPredFeedback);
-            return new AIResult(bestMove, score, aiMessage, strategy);
-        } else {
-            return new AIResult(bestMove, score, statsLog, strategy);
+            if (ctx.stop) break;
+            if (i == 0) ctx.rootNodesBest += (ctx.nodes - ctx.iterationStartNodes);
+            if (cur > bestS) {
+                bestS = cur;
+                ctx.rootMove = m.actionId;
+            }
+            alpha = Math.max(alpha, cur);
+            if (alpha >= beta) break;
         }
+        return bestS;
+    }
+
+    // Fixed-depth search with no time limit, for benchmarks and offline tools.
+    int search(GameState root, int depth) {
+        SearchContext ctx = new SearchContext(new StopFlag(Long.MAX_VALUE), history);
+        GameState s = root.copy();
+        evaluator.attach(s);
+        return negascout(ctx, s, 0, depth, -FanoronaServer.INF, FanoronaServer.INF);
     }
 
     private static String getStrategy(int score) {
@@ -188,95 +557,246 @@ class AIPlayer {
             lastPredFeedback = "Wait...";
             return;
         }
+        Ponder p = ponder;
+        if (p != null) {
+            if (p.matched < p.line.length && p.line[p.matched] == actualMove) p.matched++;
+            else cancelPonder();
+        }
         if (lastPredictedOpponentMove != -1) {
             lastPredFeedback = (actualMove == lastPredictedOpponentMove) ? "Hit🎯" : "Miss🧐";
         }
     }
 
     private int getDepth(GameState r) {
-        TTEntry e = tt.get(r.zobristHash);
-        return e != null ? e.depth : 0;
+        long e = tt.probe(r.zobristHash);
+        return e != 0 ? TranspositionTable.depth(e) : 0;
     }
 
-    private int negascout(SearchContext ctx, GameState s, int d, int alpha, int beta) {
+    private int negascout(SearchContext ctx, GameState s, int ply, int d, int alpha, int beta) {
         ctx.check();
         if (ctx.stop) return alpha;
-        TTEntry e = tt.get(s.zobristHash);
-        if (e != null && e.depth >= d) {
+        long e = tt.probe(s.zobristHash);
+        if (e != 0 && TranspositionTable.depth(e) >= d) {
             ctx.ttHits++;
-            if (e.flag == 0) return e.score;
-            if (e.flag == 1) alpha = Math.max(alpha, e.score);
-            if (e.flag == 2) beta = Math.min(beta, e.score);
-            if (alpha >= beta) return e.score;
+            int ttS = TranspositionTable.score(e), ttF = TranspositionTable.flag(e);
+            if (ttF == TranspositionTable.EXACT) return ttS;
+            if (ttF == TranspositionTable.LOWER) alpha = Math.max(alpha, ttS);
+            if (ttF == TranspositionTable.UPPER) beta = Math.min(beta, ttS);
+            if (alpha >= beta) return ttS;
         }
         if (s.oppPieces == 0) return FanoronaServer.MATE_SCORE - (50 - d);
-        if (d <= 0) return s.inCombo ? negascout(ctx, s, 1, alpha, beta) : evaluate(s);
-        List<Move> moves = GameLogic.getDetailedMoves(s);
-        if (moves.isEmpty()) return -FanoronaServer.MATE_SCORE + (50 - d);
-        int ttM = (e != null) ? e.bestMove : -1;
-        moves.sort((a, b) -> {
-            if (a.actionId == ttM) return -1;
-            if (b.actionId == ttM) return 1;
-            return (b.victims.size() * 1000 + history[b.from + 1][b.to + 1]) - (a.victims.size() * 1000 + history[a.from + 1][a.to + 1]);
-        });
+        if (tablebase != null && ply > 0 && !s.inCombo) {
+            int v = tablebase.probe(s.myPieces, s.oppPieces);
+            if (v != Tablebase.NONE) {
+                ctx.tbHits++;
+                return Tablebase.score(v);
+            }
+        }
+        if (d <= 0) return qsearch(ctx, s, ply, alpha, beta, e);
+        ctx.ensure(ply + 1);
+        SearchConfig cfg = config;
+        // Selectivity applies at turn starts off the principal variation; a capture chain is always searched out.
+        boolean prune = !s.inCombo && ply > 0 && beta - alpha == 1 && Math.abs(beta) < FanoronaServer.MATE_THRESHOLD;
+        int static_ = prune ? evaluate(s) : 0;
+        boolean forced = prune && GameLogic.mustCapture(s);
+        if (prune && cfg.razoring && d <= 2 && !forced && static_ + cfg.razorMargin * d < alpha) {
+            int v = qsearch(ctx, s, ply, alpha - 1, alpha, e);
+            if (v < alpha) {
+                ctx.razored++;
+                return v;
+            }
+        }
+        // Null move: let the opponent move twice; if that still fails high, so will any real move.
+        // Not when a capture is forced (passing would be illegal there) or with little material (zugzwang).
+        if (prune && cfg.nullMove && d >= cfg.nullMinDepth && !forced && !ctx.passed[ply] && static_ >= beta
+                && Long.bitCount(s.myPieces) >= cfg.nullMinPieces) {
+            ctx.nullTries++;
+            long[] undo = ctx.undo[ply];
+            s.save(undo, 0);
+            GameLogic.make(s, GameLogic.PASS, 0);
+            ctx.passed[ply + 1] = true;
+            int val = -negascout(ctx, s, ply + 1, d - 1 - cfg.nullReduction - d / 6, -beta, -beta + 1);
+            ctx.passed[ply + 1] = false;
+            s.restore(undo, 0);
+            if (ctx.stop) return alpha;
+            if (val >= beta) {
+                ctx.nullCuts++;
+                return beta;
+            }
+        }
+        boolean futile = prune && cfg.futility && d == 1 && !forced && static_ + cfg.futilityMargin <= alpha;
+        int[] moves = ctx.moves[ply], keys = ctx.keys[ply], killers = ctx.killers[ply];
+        long[] victims = ctx.victims[ply], undo = ctx.undo[ply];
+        int n = GameLogic.generate(s, moves, victims);
+        if (n == 0) return -FanoronaServer.MATE_SCORE + (50 - d);
+        int ttM = (e != 0) ? TranspositionTable.move(e) : -1;
+        for (int i = 0; i < n; i++) {
+            int m = moves[i];
+            if (m == ttM) keys[i] = Integer.MAX_VALUE;
+            else if (cfg.killers && victims[i] == 0 && (m == killers[0] || m == killers[1])) keys[i] = m == killers[0] ? Integer.MAX_VALUE - 1 : Integer.MAX_VALUE - 2;
+            else keys[i] = Long.bitCount(victims[i]) * 1000 + ctx.history[GameLogic.from(m) + 1][GameLogic.to(m) + 1];
+        }
+        sortMoves(moves, victims, keys, n);
+        int me = s.player;
         int bestV = -FanoronaServer.INF, bestA = -1, alphaO = alpha;
-        for (int i = 0; i < moves.size(); i++) {
-            Move m = moves.get(i);
-            GameLogic.StepResult res = GameLogic.step(s, m.actionId);
+        for (int i = 0; i < n; i++) {
+            int m = moves[i];
+            boolean quiet = victims[i] == 0 && m < 720;
+            s.save(undo, 0);
+            GameLogic.make(s, m, victims[i]);
+            // At a turn start without captures every move is quiet; only those that leave the opponent none either are skipped.
+            if (futile && quiet && i > 0 && !GameLogic.mustCapture(s)) {
+                s.restore(undo, 0);
+                ctx.futilityPruned++;
+                continue;
+            }
             int val;
-            if (res.state.player == s.player) val = negascout(ctx, res.state, d, alpha, beta);
+            if (s.player == me) val = negascout(ctx, s, ply + 1, d, alpha, beta);
             else {
-                if (i == 0) val = -negascout(ctx, res.state, d - 1, -beta, -alpha);
+                if (i == 0) val = -negascout(ctx, s, ply + 1, d - 1, -beta, -alpha);
                 else {
-                    val = -negascout(ctx, res.state, d - 1, -alpha - 1, -alpha);
-                    if (val > alpha && val < beta) val = -negascout(ctx, res.state, d - 1, -beta, -alpha);
+                    // Late quiet moves the history table has not seen succeed at this depth get a shallower first look.
+                    int r = 0;
+                    if (cfg.lmr && quiet && d >= cfg.lmrMinDepth && i >= cfg.lmrMinMove && keys[i] < Integer.MAX_VALUE - 2) {
+                        r = (i >= 2 * cfg.lmrMinMove ? 2 : 1) - (ctx.history[GameLogic.from(m) + 1][GameLogic.to(m) + 1] >= d * d ? 1 : 0);
+                        r = Math.min(r, d - 1);
+                    }
+                    if (r > 0) {
+                        ctx.lmrReduced++;
+                        val = -negascout(ctx, s, ply + 1, d - 1 - r, -alpha - 1, -alpha);
+                        if (val > alpha) ctx.lmrResearched++;
+                    } else val = alpha + 1;
+                    if (val > alpha) val = -negascout(ctx, s, ply + 1, d - 1, -alpha - 1, -alpha);
+                    if (val > alpha && val < beta) val = -negascout(ctx, s, ply + 1, d - 1, -beta, -alpha);
                 }
             }
+            s.restore(undo, 0);
             if (ctx.stop) return alpha;
             if (val > bestV) {
                 bestV = val;
-                bestA = m.actionId;
+                bestA = m;
             }
             if (val > alpha) {
                 alpha = val;
-                if (m.from >= 0) history[m.from + 1][m.to + 1] += d * d;
+                if (m < 720) ctx.history[GameLogic.from(m) + 1][GameLogic.to(m) + 1] += d * d;
+            }
+            if (alpha >= beta) {
+                if (cfg.killers && quiet) {
+                    if (m == killers[0] || m == killers[1]) ctx.killerCuts++;
+                    if (m != killers[0]) {
+                        killers[1] = killers[0];
+                        killers[0] = m;
+                    }
+                }
+                break;
             }
-            if (alpha >= beta) break;
         }
         if (!ctx.stop)
-            tt.put(s.zobristHash, new TTEntry(s.zobristHash, d, bestV, (bestV <= alphaO ? 2 : (bestV >= beta ? 1 : 0)), bestA));
+            tt.store(s.zobristHash, d, bestV, (bestV <= alphaO ? TranspositionTable.UPPER : (bestV >= beta ? TranspositionTable.LOWER : TranspositionTable.EXACT)), bestA);
+        return bestV;
+    }
+
+    // Material a capture must be able to win, beyond what the evaluator says its victims are worth, before it is
+    // worth searching in quiescence.
+    private static final int DELTA_MARGIN = 150;
+
+    // Resolves pending captures below the horizon: the rest of a capture chain and every turn that starts
+    // with a forced capture. Mid-chain the mover may stop, so the static eval is a lower bound (stand-pat)
+    // and captures that cannot lift it to alpha are skipped. A turn start without captures is a leaf.
+    // Results go to the TT at depth 0, never over a deeper entry.
+    private int qsearch(SearchContext ctx, GameState s, int ply, int alpha, int beta, long e) {
+        ctx.qNodes++;
+        if (!s.inCombo && !GameLogic.mustCapture(s)) return evaluate(s);
+        ctx.ensure(ply);
+        int[] moves = ctx.moves[ply], keys = ctx.keys[ply];
+        long[] victims = ctx.victims[ply], undo = ctx.undo[ply];
+        int n = GameLogic.generate(s, moves, victims);
+        int alphaO = alpha, bestV = -FanoronaServer.INF, bestA = -1, stand = 0;
+        if (s.inCombo) {
+            stand = evaluate(s);
+            if (stand >= beta) {
+                ctx.qStandPat++;
+                return stand;
+            }
+            bestV = stand;
+            bestA = 720;
+            alpha = Math.max(alpha, stand);
+        }
+        int ttM = (e != 0) ? TranspositionTable.move(e) : -1;
+        for (int i = 0; i < n; i++) keys[i] = moves[i] == ttM ? Integer.MAX_VALUE : Long.bitCount(victims[i]);
+        sortMoves(moves, victims, keys, n);
+        int me = s.player;
+        for (int i = 0; i < n; i++) {
+            int m = moves[i];
+            if (m == 720) continue;
+            if (s.inCombo && stand + evaluator.captureValue(s, victims[i]) + DELTA_MARGIN <= alpha) {
+                ctx.qDelta++;
+                continue;
+            }
+            s.save(undo, 0);
+            GameLogic.make(s, m, victims[i]);
+            int val = s.player == me ? quiesce(ctx, s, ply + 1, alpha, beta) : -quiesce(ctx, s, ply + 1, -beta, -alpha);
+            s.restore(undo, 0);
+            if (ctx.stop) return alpha;
+            if (val > bestV) {
+                bestV = val;
+                bestA = m;
+            }
+            alpha = Math.max(alpha, val);
+            if (alpha >= beta) break;
+        }
+        if (e == 0 || TranspositionTable.depth(e) == 0)
+            tt.store(s.zobristHash, 0, bestV, (bestV <= alphaO ? TranspositionTable.UPPER : (bestV >= beta ? TranspositionTable.LOWER : TranspositionTable.EXACT)), bestA);
         return bestV;
     }
 
-    private int evaluate(GameState s) {
-        int myC = Long.bitCount(s.myPieces), oppC = Long.bitCount(s.oppPieces);
-        int sc = (myC - oppC) * 100;
-        long t = s.myPieces;
-        while (t != 0) {
-            sc += GameLogic.POS_VAL[Long.numberOfTrailingZeros(t)];
-            t &= (t - 1);
+    // Entry to qsearch below the first quiescence ply: stop check, TT and terminal positions.
+    private int quiesce(SearchContext ctx, GameState s, int ply, int alpha, int beta) {
+        ctx.check();
+        if (ctx.stop) return alpha;
+        // Past the horizon, so below every mate negascout scores (MATE_SCORE - 50 + d with d >= 0); nearer wins score higher.
+        if (s.oppPieces == 0) return FanoronaServer.MATE_SCORE - 50 - ply;
+        long e = tt.probe(s.zobristHash);
+        if (e != 0) {
+            ctx.ttHits++;
+            int ttS = TranspositionTable.score(e), ttF = TranspositionTable.flag(e);
+            if (ttF == TranspositionTable.EXACT) return ttS;
+            if (ttF == TranspositionTable.LOWER && ttS >= beta) return ttS;
+            if (ttF == TranspositionTable.UPPER && ttS <= alpha) return ttS;
         }
-        t = s.oppPieces;
-        while (t != 0) {
-            sc -= GameLogic.POS_VAL[Long.numberOfTrailingZeros(t)];
-            t &= (t - 1);
+        if (tablebase != null && !s.inCombo) {
+            int v = tablebase.probe(s.myPieces, s.oppPieces);
+            if (v != Tablebase.NONE) {
+                ctx.tbHits++;
+                return Tablebase.score(v);
+            }
         }
-        if (myC > oppC && oppC > 0) {
-            int enemyP = Long.numberOfTrailingZeros(s.oppPieces);
-            int er = GameLogic.POS_R[enemyP], ec = GameLogic.POS_C[enemyP];
-            long my = s.myPieces;
-            int dSum = 0;
-            while (my != 0) {
-                int p = Long.numberOfTrailingZeros(my);
-                dSum += Math.abs(GameLogic.POS_R[p] - er) + Math.abs(GameLogic.POS_C[p] - ec);
-                my &= (my - 1);
+        return qsearch(ctx, s, ply, alpha, beta, e);
+    }
+
+    // Stable insertion sort by descending key; move lists are short enough that this beats anything fancier.
+    private static void sortMoves(int[] moves, long[] victims, int[] keys, int n) {
+        for (int i = 1; i < n; i++) {
+            int m = moves[i], k = keys[i];
+            long v = victims[i];
+            int j = i - 1;
+            while (j >= 0 && keys[j] < k) {
+                moves[j + 1] = moves[j];
+                victims[j + 1] = victims[j];
+                keys[j + 1] = keys[j];
+                j--;
             }
-            sc -= (dSum * 2);
+            moves[j + 1] = m;
+            victims[j + 1] = v;
+            keys[j + 1] = k;
         }
-        return sc;
     }
 
-    private String getNarrativePV(GameState root, int first, int maxSteps) {
+    int evaluate(GameState s) {
+        return evaluator.evaluate(s);
+    }
+
+    String getNarrativePV(GameState root, int first, int maxSteps) {
         StringBuilder sb = new StringBuilder();
         GameState curr = root.copy();
         Set<Long> seen = new HashSet<>();
@@ -313,83 +833,86 @@ class AIPlayer {
                 break;
             }
             curr = res.state;
-            TTEntry e = tt.get(curr.zobristHash);
-            if (e == null) break;
-            mid = e.bestMove;
+            long e = tt.probe(curr.zobristHash);
+            if (e == 0) break;
+            mid = TranspositionTable.move(e);
         }
         return sb.toString().trim();
     }
 
-    public int getMemorySize() {
-        return tt.size();
-    }
-
-    public void loadMemory(String p) {
-        File f = new File(p);
-        if (!f.exists()) return;
-        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
-            System.out.println("🧠 Loading memory...");
-            int size = dis.readInt();
-            for (int i = 0; i < size; i++) {
-                long k = dis.readLong();
-                int d = dis.readInt();
-                int s = dis.readInt();
-                int fl = dis.readInt();
-                int bm = dis.readInt();
-                tt.put(k, new TTEntry(k, d, s, fl, bm));
+    // Snapshot every COMPACT_EVERY checkpoints; in between only changed buckets go to the delta log.
+    private static final int COMPACT_EVERY = 30;
+    private static long memoryGeneration;
+    private static boolean logValid;
+    private static int checkpoints, seedVersion, savedSeedVersion;
+
+    // A file that fails its header or checksums is kept aside as <name>.bad and the table starts empty.
+    static void loadMemory(TranspositionTable tt, String p) {
+        Path path = Path.of(p);
+        if (!Files.exists(path)) return;
+        long t0 = System.nanoTime();
+        try {
+            Path log = MemoryFile.logPath(path);
+            synchronized (seedHistory) {
+                memoryGeneration = MemoryFile.load(tt, seedHistory, path);
+                long valid = MemoryFile.replay(tt, seedHistory, memoryGeneration, log);
+                logValid = valid >= 0 && valid == Files.size(log);
+            }
+            System.out.printf("✅ Entries restored: %d (%d ms)%n", tt.size(), (System.nanoTime() - t0) / 1_000_000);
+        } catch (IOException e) {
+            tt.clear();
+            synchronized (seedHistory) {
+                for (int[] row : seedHistory) Arrays.fill(row, 0);
             }
-            if (dis.available() > 0) {
-                for (int r = 0; r < 46; r++) for (int c = 0; c < 46; c++) history[r][c] = dis.readInt();
+            Path bad = path.resolveSibling(path.getFileName() + ".bad");
+            System.err.println("Memory file rejected (" + e.getMessage() + "), starting empty; kept as " + bad);
+            try {
+                Files.move(path, bad, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException ignored) {
             }
-            System.out.println("✅ Entries restored: " + tt.size());
-        } catch (Exception e) {
-            System.err.println("Memory corrupted and reset");
         }
     }
 
-    public synchronized void saveMemory(String p) {
-        // Pruning Logic
-        if (tt.size() > FanoronaServer.MAX_MEMORY_ENTRIES) {
-            System.out.println("✂️ Memory limit reached (" + tt.size() + "). Pruning...");
-            int oldSize = tt.size();
-            tt.entrySet().removeIf(e -> e.getValue().depth <= 2);
-
-            if (tt.size() > FanoronaServer.MAX_MEMORY_ENTRIES) {
-                tt.entrySet().removeIf(e -> e.getValue().depth <= 4);
-            }
+    // Full snapshot under a new generation, followed by an empty delta log for it.
+    static synchronized void saveMemory(TranspositionTable tt, String p) {
+        int[][] h;
+        synchronized (seedHistory) {
+            h = copyOf(seedHistory);
+            savedSeedVersion = seedVersion;
+        }
+        Path path = Path.of(p);
+        try {
+            tt.clearDirty();
+            MemoryFile.save(tt, h, ++memoryGeneration, path);
+            MemoryFile.startLog(memoryGeneration, tt.length(), MemoryFile.logPath(path));
+            logValid = true;
+            checkpoints = 0;
+            System.out.println("💾 Memory saved (" + tt.size() + " entries)");
+        } catch (IOException e) {
+            logValid = false;
+            e.printStackTrace();
+        }
+    }
 
-            if (tt.size() > FanoronaServer.MAX_MEMORY_ENTRIES) {
-                tt.entrySet().removeIf(e -> e.getValue().depth <= 8);
+    // Cost scales with the buckets stored to since the last checkpoint, not with the table size.
+    static synchronized void checkpointMemory(TranspositionTable tt, String p) {
+        Path log = MemoryFile.logPath(Path.of(p));
+        try {
+            if (!logValid || ++checkpoints >= COMPACT_EVERY || Files.size(log) > tt.length() * 4L) {
+                saveMemory(tt, p);
+                return;
             }
-
-            if (tt.size() > FanoronaServer.MAX_MEMORY_ENTRIES) {
-                System.out.println("⚠️ Still over limit, forced truncation by depth...");
-                List<Map.Entry<Long, TTEntry>> list = new ArrayList<>(tt.entrySet());
-
-                list.sort((a, b) -> b.getValue().depth - a.getValue().depth);
-
-                tt.clear();
-                for (int i = 0; i < FanoronaServer.MAX_MEMORY_ENTRIES; i++) {
-                    Map.Entry<Long, TTEntry> entry = list.get(i);
-                    tt.put(entry.getKey(), entry.getValue());
+            int[][] h = null;
+            synchronized (seedHistory) {
+                if (seedVersion != savedSeedVersion) {
+                    h = copyOf(seedHistory);
+                    savedSeedVersion = seedVersion;
                 }
             }
-            System.out.println("✂️ Pruning complete. Size: " + oldSize + " -> " + tt.size());
-        }
-
-        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(p)))) {
-            dos.writeInt(tt.size());
-            for (TTEntry e : tt.values()) {
-                dos.writeLong(e.key);
-                dos.writeInt(e.depth);
-                dos.writeInt(e.score);
-                dos.writeInt(e.flag);
-                dos.writeInt(e.bestMove);
-            }
-            for (int r = 0; r < 46; r++) for (int c = 0; c < 46; c++) dos.writeInt(history[r][c]);
-            dos.flush();
-            System.out.println("💾 Memory saved (" + tt.size() + " entries)");
-        } catch (Exception e) {
+            int n = MemoryFile.appendDelta(tt, h, log);
+            System.out.println("💾 Memory delta saved (" + n + " buckets)");
+        } catch (IOException e) {
+            logValid = false;
             e.printStackTrace();
         }
     }
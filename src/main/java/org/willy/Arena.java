@@ -0,0 +1,281 @@
+package org.willy;
+
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Engine-vs-engine matches at fixed time, one game per worker. Every engine owns its own
+// transposition table per worker, cleared before each game, and plays single-threaded without
+// pondering. Each random opening is played twice with colours swapped. A game ends on a win from
+// GameLogic.step, when the side to move has no move, on the third repetition of a turn-start
+// position, or at the turn cap. Games stop early once the SPRT reaches a decision.
+// Usage: java -cp fanorona.jar org.willy.Arena [--games=N] [--concurrency=N] [--opening-plies=N]
+//        [--max-turns=N] [--seed=N] [--a.time=ms] [--a.depth=N] [--a.hash=MB] [--a.disable=list] [--a.eval=file] [--b.time=ms] ...
+//        [--elo0=0] [--elo1=10] [--alpha=0.05] [--beta=0.05] [--book=file] [--log=file]
+class Arena {
+    static class Engine {
+        final String name;
+        int timeMs = 100, depth = FanoronaServer.MAX_DEPTH, hashMb = 16;
+        SearchConfig config = new SearchConfig();
+        TableEvaluator eval = new TableEvaluator();
+        final AtomicLong searches = new AtomicLong(), depthSum = new AtomicLong(), nodes = new AtomicLong(), ms = new AtomicLong();
+        private final ThreadLocal<TranspositionTable> tables = ThreadLocal.withInitial(() -> new TranspositionTable(hashMb));
+
+        Engine(String name) {
+            this.name = name;
+        }
+
+        AIPlayer player() {
+            TranspositionTable tt = tables.get();
+            tt.clear();
+            AIPlayer ai = new AIPlayer(tt);
+            ai.maxDepth = depth;
+            ai.verbose = false;
+            ai.config = config;
+            ai.evaluator = eval;
+            return ai;
+        }
+
+        String describe() {
+            return String.format("%s (%dms, depth %d, %dMB, %s, eval %s)", name, timeMs, depth, hashMb, config, eval.source);
+        }
+    }
+
+    final Engine a = new Engine("A"), b = new Engine("B");
+    int maxTurns = 200;
+    private int wins, draws, losses;
+    private final AtomicBoolean decided = new AtomicBoolean();
+    private double elo0 = 0, elo1 = 10, alpha = 0.05, beta = 0.05;
+
+    // One finished game, scored from A's side.
+    record Game(int number, double scoreA, String log) {
+    }
+
+    static List<Integer> randomOpening(Random rnd, int plies) {
+        for (; ; ) {
+            List<Integer> line = new ArrayList<>();
+            GameState s = GameLogic.initialState();
+            boolean ok = true;
+            for (int i = 0; i < plies && ok; i++) {
+                List<Move> ms = GameLogic.getDetailedMoves(s);
+                if (ms.isEmpty()) ok = false;
+                else {
+                    int m = ms.get(rnd.nextInt(ms.size())).actionId;
+                    GameLogic.StepResult r = GameLogic.step(s, m);
+                    line.add(m);
+                    s = r.state;
+                    ok = !r.win;
+                }
+            }
+            if (ok) return line;
+        }
+    }
+
+    Game play(int number, List<Integer> opening, boolean aWhite) {
+        Engine white = aWhite ? a : b, black = aWhite ? b : a;
+        AIPlayer pw = white.player(), pb = black.player();
+        GameState s = GameLogic.initialState();
+        int whiteSide = s.player;
+        Map<Long, Integer> seen = new HashMap<>();
+        StringBuilder moves = new StringBuilder();
+        int turn = 0, ply = 0;
+        String result = "1/2-1/2", termination = "turn limit";
+        boolean turnStart = true;
+        while (true) {
+            if (turnStart) {
+                if (seen.merge(s.zobristHash, 1, Integer::sum) >= 3) {
+                    termination = "repetition";
+                    break;
+                }
+                if (s.player == whiteSide && ++turn > maxTurns) break;
+                if (s.player == whiteSide) moves.append(turn == 1 ? "" : " ").append(turn).append(". ");
+                else moves.append(' ');
+            } else moves.append('+');
+            boolean whiteToMove = s.player == whiteSide;
+            if (GameLogic.getDetailedMoves(s).isEmpty()) {
+                result = whiteToMove ? "0-1" : "1-0";
+                termination = "no moves";
+                break;
+            }
+            int m;
+            if (ply < opening.size()) m = opening.get(ply);
+            else {
+                Engine e = whiteToMove ? white : black;
+                long t0 = System.currentTimeMillis();
+                AIPlayer.AIResult r = (whiteToMove ? pw : pb).think(s, e.timeMs);
+                if (r.nodes > 0) {
+                    e.searches.incrementAndGet();
+                    e.depthSum.addAndGet(r.depth);
+                    e.nodes.addAndGet(r.nodes);
+                    e.ms.addAndGet(System.currentTimeMillis() - t0);
+                }
+                m = r.bestMove;
+            }
+            ply++;
+            moves.append(GameLogic.describe(m));
+            for (AIPlayer p : new AIPlayer[]{pw, pb}) {
+                p.analyzeHumanMove(m);
+                p.recordState(s.zobristHash);
+            }
+            GameLogic.StepResult r = GameLogic.step(s, m);
+            for (AIPlayer p : new AIPlayer[]{pw, pb}) p.recordState(r.state.zobristHash);
+            if (r.win) {
+                result = whiteToMove ? "1-0" : "0-1";
+                termination = "capture all";
+                break;
+            }
+            turnStart = r.state.player != s.player;
+            s = r.state;
+        }
+        double whiteScore = result.equals("1-0") ? 1 : result.equals("0-1") ? 0 : 0.5;
+        StringBuilder log = new StringBuilder();
+        log.append("[Game \"").append(number).append("\"]\n");
+        log.append("[White \"").append(white.describe()).append("\"]\n");
+        log.append("[Black \"").append(black.describe()).append("\"]\n");
+        log.append("[Opening \"").append(String.join(" ", opening.stream().map(GameLogic::describe).toList())).append("\"]\n");
+        log.append("[Result \"").append(result).append("\"]\n");
+        log.append("[Termination \"").append(termination).append("\"]\n\n");
+        log.append(moves).append(' ').append(result).append("\n\n");
+        return new Game(number, aWhite ? whiteScore : 1 - whiteScore, log.toString());
+    }
+
+    synchronized void record(Game g) {
+        if (g.scoreA() == 1) wins++;
+        else if (g.scoreA() == 0) losses++;
+        else draws++;
+        double llr = llr();
+        if (llr >= Math.log((1 - beta) / alpha) || llr <= Math.log(beta / (1 - alpha))) decided.set(true);
+    }
+
+    private static double expected(double elo) {
+        return 1 / (1 + Math.pow(10, -elo / 400));
+    }
+
+    private static double elo(double score) {
+        score = Math.min(Math.max(score, 1e-6), 1 - 1e-6);
+        return -400 * Math.log10(1 / score - 1);
+    }
+
+    private double variance(double mean) {
+        int n = wins + draws + losses;
+        return (wins * (1 - mean) * (1 - mean) + draws * (0.5 - mean) * (0.5 - mean) + losses * mean * mean) / n;
+    }
+
+    // Generalized SPRT: log-likelihood ratio of elo1 over elo0 under a normal approximation of the game score.
+    synchronized double llr() {
+        int n = wins + draws + losses;
+        if (n == 0) return 0;
+        double mean = (wins + draws / 2.0) / n, var = variance(mean);
+        if (var == 0) return 0;
+        double s0 = expected(elo0), s1 = expected(elo1);
+        return n * (s1 - s0) * (2 * mean - s0 - s1) / (2 * var);
+    }
+
+    synchronized String summary() {
+        int n = wins + draws + losses;
+        if (n == 0) return "no games";
+        double mean = (wins + draws / 2.0) / n, se = Math.sqrt(variance(mean) / n);
+        double margin = (elo(mean + 1.96 * se) - elo(mean - 1.96 * se)) / 2;
+        double llr = llr(), lower = Math.log(beta / (1 - alpha)), upper = Math.log((1 - beta) / alpha);
+        String verdict = llr >= upper ? "H1 accepted" : llr <= lower ? "H0 accepted" : "inconclusive";
+        return String.format("Games %d: +%d =%d -%d  score %.1f%%  Elo %+.1f +/- %.1f  LLR %.2f [%.2f, %.2f] (%+.0f vs %+.0f) %s",
+                n, wins, draws, losses, mean * 100, elo(mean), margin, llr, lower, upper, elo0, elo1, verdict);
+    }
+
+    static String sideStats(Engine e) {
+        long n = Math.max(1, e.searches.get());
+        return String.format("%s: avg depth %.2f, %.0f kNPS over %d searches", e.describe(), e.depthSum.get() / (double) n,
+                e.nodes.get() / Math.max(1.0, e.ms.get()), e.searches.get());
+    }
+
+    void run(int games, int concurrency, int openingPlies, long seed, PrintWriter log) throws Exception {
+        Random rnd = new Random(seed);
+        ExecutorService pool = Executors.newFixedThreadPool(concurrency);
+        List<Future<Game>> pending = new ArrayList<>();
+        for (int i = 0; i < games; i += 2) {
+            List<Integer> opening = randomOpening(rnd, openingPlies);
+            for (int j = i; j < Math.min(games, i + 2); j++) {
+                int number = j + 1;
+                boolean aWhite = j % 2 == 0;
+                pending.add(pool.submit(() -> {
+                    if (decided.get()) return null;
+                    Game g = play(number, opening, aWhite);
+                    record(g);
+                    if (log != null) {
+                        synchronized (log) {
+                            log.print(g.log());
+                            log.flush();
+                        }
+                    }
+                    return g;
+                }));
+            }
+        }
+        int done = 0;
+        for (Future<Game> f : pending) {
+            if (f.get() == null) continue;
+            if (++done % 10 == 0 && done < games) System.out.println(summary());
+        }
+        pool.shutdown();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int games = 100, concurrency = Runtime.getRuntime().availableProcessors(), openingPlies = 4;
+        long seed = System.nanoTime();
+        String logFile = null, bookFile = null;
+        Arena arena = new Arena();
+        for (String arg : args) {
+            String v = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("--games=")) games = Integer.parseInt(v);
+            if (arg.startsWith("--concurrency=")) concurrency = Integer.parseInt(v);
+            if (arg.startsWith("--opening-plies=")) openingPlies = Integer.parseInt(v);
+            if (arg.startsWith("--max-turns=")) arena.maxTurns = Integer.parseInt(v);
+            if (arg.startsWith("--seed=")) seed = Long.parseLong(v);
+            if (arg.startsWith("--elo0=")) arena.elo0 = Double.parseDouble(v);
+            if (arg.startsWith("--elo1=")) arena.elo1 = Double.parseDouble(v);
+            if (arg.startsWith("--alpha=")) arena.alpha = Double.parseDouble(v);
+            if (arg.startsWith("--beta=")) arena.beta = Double.parseDouble(v);
+            if (arg.startsWith("--log=")) logFile = v;
+            if (arg.startsWith("--book=")) bookFile = v;
+            for (Engine e : new Engine[]{arena.a, arena.b}) {
+                String p = "--" + e.name.toLowerCase() + ".";
+                if (arg.startsWith(p + "time=")) e.timeMs = Integer.parseInt(v);
+                if (arg.startsWith(p + "depth=")) e.depth = Integer.parseInt(v);
+                if (arg.startsWith(p + "hash=")) e.hashMb = Integer.parseInt(v);
+                if (arg.startsWith(p + "disable=")) e.config = SearchConfig.parse(v);
+                if (arg.startsWith(p + "eval=")) e.eval = TableEvaluator.load(Path.of(v));
+            }
+        }
+        GameLogic.initTables();
+        Zobrist.init();
+        FanoronaServer.THREADS = 1;
+        FanoronaServer.PONDER = false;
+        if (bookFile != null) FanoronaServer.book = OpeningBook.load(Path.of(bookFile));
+
+        System.out.printf("Arena: %d games, %d at a time, %d random opening plies, seed %d%n  %s%n  %s%n",
+                games, concurrency, openingPlies, seed, arena.a.describe(), arena.b.describe());
+        long t0 = System.currentTimeMillis();
+        PrintWriter log = logFile == null ? null : new PrintWriter(Files.newBufferedWriter(Path.of(logFile),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING));
+        try {
+            arena.run(games, Math.max(1, concurrency), openingPlies, seed, log);
+        } finally {
+            if (log != null) log.close();
+        }
+        System.out.println(arena.summary());
+        System.out.println(sideStats(arena.a));
+        System.out.println(sideStats(arena.b));
+        System.out.printf("%.1fs%n", (System.currentTimeMillis() - t0) / 1000.0);
+    }
+}
@@ -0,0 +1,240 @@
+package org.willy;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// Searches started with /ai/start run on the search executor and publish one event per completed
+// iteration. Clients follow them over Server-Sent Events (/ai/stream) or long-poll (/ai/poll), and
+// can end them early: /ai/stop answers with the best move so far, /ai/cancel discards the search.
+// A search id is random and only found from the session that started it (X-Game-Id or ?game=).
+class AsyncSearches {
+    private static final long KEEP_MS = 5 * 60_000, POLL_MS = 20_000, PING_MS = 15_000;
+
+    static class Search {
+        final String id, session;
+        // What stop and cancel set. A ponder hit keeps running on the ponder's flag, which replaces this one.
+        volatile AIPlayer.StopFlag flag = new AIPlayer.StopFlag(Long.MAX_VALUE);
+        private final List<String> events = new ArrayList<>();
+        private String result;
+        private boolean done;
+        private long finishedAt;
+
+        Search(String id, String session) {
+            this.id = id;
+            this.session = session;
+        }
+
+        // A stop or cancel that found the old flag carries over; one that comes after finds the new flag.
+        void adopt(AIPlayer.StopFlag f) {
+            AIPlayer.StopFlag old = flag;
+            flag = f;
+            if (old.set) {
+                f.cancelled |= old.cancelled;
+                f.set = true;
+            }
+        }
+
+        synchronized void publish(String json) {
+            events.add(json);
+            notifyAll();
+        }
+
+        synchronized void complete(String json) {
+            if (done) return;
+            result = json;
+            done = true;
+            finishedAt = System.currentTimeMillis();
+            notifyAll();
+        }
+
+        // Waits until there are more than seen events or the search is done.
+        synchronized void await(int seen, long timeoutMs) throws InterruptedException {
+            long until = System.currentTimeMillis() + timeoutMs;
+            for (long left = timeoutMs; events.size() <= seen && !done && left > 0; left = until - System.currentTimeMillis()) {
+                wait(left);
+            }
+        }
+
+        synchronized List<String> since(int seen) {
+            return new ArrayList<>(events.subList(Math.min(seen, events.size()), events.size()));
+        }
+
+        synchronized int count() {
+            return events.size();
+        }
+
+        synchronized boolean done() {
+            return done;
+        }
+
+        synchronized String result() {
+            return result;
+        }
+    }
+
+    private final Map<String, Search> searches = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+
+    AsyncSearches() {
+        Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "search-expiry");
+            t.setDaemon(true);
+            return t;
+        }).scheduleAtFixedRate(this::expire, 1, 1, TimeUnit.MINUTES);
+    }
+
+    Sessions.SessionHandler start() {
+        return (ex, ai) -> {
+            GameState state = Wire.position(ex);
+            byte[] id = new byte[16];
+            random.nextBytes(id);
+            Search s = new Search(HexFormat.of().formatHex(id), Sessions.idOf(ex));
+            searches.put(s.id, s);
+            String started = "{\"search_id\": \"" + s.id + "\"}";
+            if (!ai.searching.compareAndSet(false, true)) {
+                searches.remove(s.id);
+                HttpUtil.sendJson(ex, 409, "{\"error\":\"Session busy: a search is already running\"}");
+                return;
+            }
+            AIPlayer.StopFlag pondered = ai.promotePonder(state, FanoronaServer.Time_LIMIT, progress(s, ai, state), res -> {
+                // Null once cancelled, which has completed the search already.
+                s.complete(res != null ? AIHandler.toJson(res) : "{\"error\":\"AI Logic Error\"}");
+                ai.searching.set(false);
+            });
+            if (pondered != null) {
+                s.adopt(pondered);
+                HttpUtil.sendJson(ex, started);
+                return;
+            }
+            SearchExecutor executor = FanoronaServer.searches;
+            boolean queued = executor.submit(ai, wait -> {
+                long budget = executor.budget(wait, FanoronaServer.Time_LIMIT);
+                if (s.flag.set || budget < 0) {
+                    s.complete(s.flag.set ? "{\"cancelled\": true}" : "{\"error\":\"Search queue timeout\"}");
+                    return;
+                }
+                s.flag.end = System.currentTimeMillis() + budget;
+                try {
+                    AIPlayer.AIResult res;
+                    synchronized (ai) {
+                        // Null once cancelled, which has completed the search already.
+                        res = ai.think(state, s.flag, progress(s, ai, state));
+                    }
+                    if (res != null) s.complete(AIHandler.toJson(res));
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    s.complete("{\"error\":\"AI Logic Error\"}");
+                }
+            });
+            if (!queued) {
+                searches.remove(s.id);
+                HttpUtil.sendJson(ex, 503, "{\"error\":\"Server busy\"}");
+                return;
+            }
+            HttpUtil.sendJson(ex, started);
+        };
+    }
+
+    private static AIPlayer.Progress progress(Search s, AIPlayer ai, GameState state) {
+        return (depth, score, move, nodes, elapsed) -> s.publish(String.format(
+                "{\"depth\": %d, \"score\": %d, \"action_id\": %d, \"nodes\": %d, \"nps\": %d, \"time_ms\": %d, \"pv\": \"%s\"}",
+                depth, score, move, nodes, nodes * 1000 / Math.max(1, elapsed), elapsed,
+                ai.getNarrativePV(state, move, depth).replace("\"", "'")));
+    }
+
+    HttpHandler stream() {
+        return ex -> {
+            Search s = find(ex);
+            if (s == null) return;
+            ex.getResponseHeaders().set("Content-Type", "text/event-stream");
+            ex.getResponseHeaders().set("Cache-Control", "no-cache");
+            ex.sendResponseHeaders(200, 0);
+            try (OutputStream os = ex.getResponseBody()) {
+                int seen = 0;
+                while (true) {
+                    s.await(seen, PING_MS);
+                    List<String> fresh = s.since(seen);
+                    seen += fresh.size();
+                    StringBuilder sb = new StringBuilder();
+                    for (String e : fresh) sb.append("event: iteration\ndata: ").append(e).append("\n\n");
+                    boolean done = s.done() && s.since(seen).isEmpty();
+                    if (done) sb.append("event: done\ndata: ").append(s.result()).append("\n\n");
+                    if (sb.isEmpty()) sb.append(": ping\n\n");
+                    os.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+                    os.flush();
+                    if (done) break;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+    }
+
+    // GET /ai/poll?id=..&since=N holds the request until there is something past event N.
+    HttpHandler poll() {
+        return ex -> {
+            Search s = find(ex);
+            if (s == null) return;
+            String since = HttpUtil.query(ex, "since");
+            int seen;
+            try {
+                seen = since == null ? 0 : Integer.parseInt(since);
+            } catch (NumberFormatException e) {
+                seen = -1;
+            }
+            if (seen < 0) {
+                HttpUtil.sendError(ex, 400, "since must be a count of events");
+                return;
+            }
+            try {
+                s.await(seen, POLL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            boolean done = s.done();
+            seen = Math.min(seen, s.count());
+            List<String> fresh = s.since(seen);
+            HttpUtil.sendJson(ex, String.format("{\"events\": [%s], \"next\": %d, \"done\": %b, \"result\": %s}",
+                    String.join(", ", fresh), seen + fresh.size(), done, done ? s.result() : "null"));
+        };
+    }
+
+    HttpHandler stop(boolean cancel) {
+        return ex -> {
+            Search s = find(ex);
+            if (s == null) return;
+            AIPlayer.StopFlag flag = s.flag;
+            if (cancel) {
+                s.complete("{\"cancelled\": true}");
+                flag.cancelled = true;
+            }
+            flag.set = true;
+            HttpUtil.sendJson(ex, "{\"status\": \"ok\"}");
+        };
+    }
+
+    private Search find(HttpExchange ex) throws IOException {
+        String id = HttpUtil.query(ex, "id");
+        Search s = id == null ? null : searches.get(id);
+        if (s != null && !s.session.equals(Sessions.idOf(ex))) s = null;
+        if (s == null) HttpUtil.sendJson(ex, 404, "{\"error\":\"Unknown search\"}");
+        return s;
+    }
+
+    private void expire() {
+        long now = System.currentTimeMillis();
+        searches.values().removeIf(s -> s.done() && now - s.finishedAt > KEEP_MS);
+    }
+}
@@ -0,0 +1,190 @@
+package org.willy;
+
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+
+// Scores a stream of positions, one GameLogic.fromJson object per line (an optional "id" is echoed
+// back), at a fixed depth and/or node budget. Positions are searched in parallel, single-threaded each,
+// by players that share one table and no session state; one NDJSON result line is emitted per position
+// as soon as it finishes, so the output order is the completion order.
+// Usage: java -cp fanorona.jar org.willy.BatchAnalyzer [--depth=N] [--nodes=N] [--threads=N] [--hash=MB] [--in=file] [--out=file]
+class BatchAnalyzer {
+    // Server limits per position: a request cannot hold the search workers longer than an /ai search would.
+    static final int SERVER_MAX_DEPTH = 20;
+    static final long SERVER_MAX_NODES = 5_000_000;
+
+    private final TranspositionTable tt;
+    private final int depth;
+    private final long nodes, timeMs;
+    // Players not searching right now; there are never more than the window of positions in flight.
+    private final Queue<AIPlayer> idle = new ConcurrentLinkedQueue<>();
+
+    // nodes and timeMs of 0 leave the search unbounded but for the depth.
+    BatchAnalyzer(TranspositionTable tt, int depth, long nodes, long timeMs) {
+        this.tt = tt;
+        this.depth = depth;
+        this.nodes = nodes;
+        this.timeMs = timeMs;
+    }
+
+    private AIPlayer player() {
+        AIPlayer ai = idle.poll();
+        if (ai != null) return ai;
+        ai = new AIPlayer(tt);
+        ai.maxDepth = depth;
+        ai.threads = 1;
+        ai.verbose = false;
+        ai.pondering = false;
+        ai.useBook = false;
+        ai.ageTable = false;
+        return ai;
+    }
+
+    String analyze(int index, String line) {
+        String id = "";
+        try {
+            JsonUtil.Reader j = JsonUtil.parse(line);
+            if (j.id != null) id = ", \"id\": " + j.id;
+            GameState s = GameLogic.fromJson(j, new GameState());
+            long t0 = System.currentTimeMillis();
+            AIPlayer.StopFlag flag = new AIPlayer.StopFlag(timeMs > 0 ? t0 + timeMs : Long.MAX_VALUE);
+            if (nodes > 0) flag.maxNodes = nodes;
+            AIPlayer ai = player();
+            AIPlayer.AIResult res;
+            try {
+                res = ai.think(s, flag, null);
+            } finally {
+                idle.offer(ai);
+            }
+            return String.format("{\"index\": %d%s, \"action_id\": %d, \"score\": %d, \"depth\": %d, \"nodes\": %d, \"time_ms\": %d, \"pv\": \"%s\"}",
+                    index, id, res.bestMove, res.score, res.depth, res.nodes, System.currentTimeMillis() - t0,
+                    res.bestMove == 720 && res.nodes == 0 ? "" : ai.getNarrativePV(s, res.bestMove, depth).replace("\"", "'"));
+        } catch (RuntimeException e) {
+            return String.format("{\"index\": %d%s, \"error\": \"%s\"}", index, id, String.valueOf(e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName()).replace("\"", "'"));
+        }
+    }
+
+    // Reads positions until EOF or until out reports a closed sink, keeping at most window searches in flight.
+    // out is called under a lock; it returns false to stop. A position the pool refuses gets an error line.
+    // The table is aged once for the whole batch. Returns the number of positions read.
+    int run(BufferedReader in, Executor pool, int window, Predicate<String> out) throws IOException, InterruptedException {
+        tt.newSearch();
+        Semaphore slots = new Semaphore(window);
+        AtomicBoolean open = new AtomicBoolean(true);
+        int index = 0;
+        for (String line; open.get() && (line = in.readLine()) != null; ) {
+            if (line.isBlank()) continue;
+            int i = index++;
+            String l = line;
+            slots.acquire();
+            try {
+                pool.execute(() -> {
+                    try {
+                        emit(open, out, open.get() ? analyze(i, l) : null);
+                    } finally {
+                        slots.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                emit(open, out, String.format("{\"index\": %d, \"error\": \"Server busy\"}", i));
+                slots.release();
+            }
+        }
+        slots.acquire(window);
+        return index;
+    }
+
+    private static void emit(AtomicBoolean open, Predicate<String> out, String result) {
+        synchronized (out) {
+            if (result != null && open.get() && !out.test(result)) open.set(false);
+        }
+    }
+
+    // POST /analyze_batch?depth=N&nodes=N with NDJSON positions; streams NDJSON results. Positions are
+    // searched in the server's table, as jobs on its search executor like any other search, at most one
+    // per search worker at a time. Each is held to SERVER_MAX_DEPTH, SERVER_MAX_NODES and the /ai time limit.
+    static HttpHandler handler() {
+        return ex -> {
+            int depth = intParam(HttpUtil.query(ex, "depth"), 0);
+            long nodes = intParam(HttpUtil.query(ex, "nodes"), 0);
+            if (depth <= 0) depth = nodes > 0 ? SERVER_MAX_DEPTH : 8;
+            if (nodes <= 0) nodes = SERVER_MAX_NODES;
+            BatchAnalyzer b = new BatchAnalyzer(FanoronaServer.tt, Math.min(depth, SERVER_MAX_DEPTH),
+                    Math.min(nodes, SERVER_MAX_NODES), FanoronaServer.Time_LIMIT);
+            SearchExecutor searches = FanoronaServer.searches;
+            Executor pool = r -> {
+                if (!searches.submit(wait -> r.run())) throw new RejectedExecutionException();
+            };
+            ex.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+            ex.sendResponseHeaders(200, 0);
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(ex.getRequestBody(), StandardCharsets.UTF_8));
+                 OutputStream os = ex.getResponseBody()) {
+                b.run(in, pool, searches.workers(), line -> {
+                    try {
+                        os.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+                        os.flush();
+                        return true;
+                    } catch (IOException e) {
+                        return false;
+                    }
+                });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+    }
+
+    private static int intParam(String v, int def) {
+        try {
+            return v == null ? def : Integer.parseInt(v);
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int depth = 8, threads = Runtime.getRuntime().availableProcessors(), hash = 256;
+        long nodes = 0;
+        String inFile = null, outFile = null;
+        for (String arg : args) {
+            if (arg.startsWith("--depth=")) depth = Integer.parseInt(arg.split("=")[1]);
+            if (arg.startsWith("--nodes=")) nodes = Long.parseLong(arg.split("=")[1]);
+            if (arg.startsWith("--threads=")) threads = Integer.parseInt(arg.split("=")[1]);
+            if (arg.startsWith("--hash=")) hash = Integer.parseInt(arg.split("=")[1]);
+            if (arg.startsWith("--in=")) inFile = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("--out=")) outFile = arg.substring(arg.indexOf('=') + 1);
+        }
+        GameLogic.initTables();
+        Zobrist.init();
+
+        long t0 = System.currentTimeMillis();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        BatchAnalyzer b = new BatchAnalyzer(new TranspositionTable(hash), depth, nodes, 0);
+        try (BufferedReader in = inFile == null ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)) : Files.newBufferedReader(Path.of(inFile));
+             PrintStream out = outFile == null ? System.out : new PrintStream(Files.newOutputStream(Path.of(outFile)), false, StandardCharsets.UTF_8)) {
+            int n = b.run(in, pool, 2 * Math.max(1, threads), line -> {
+                out.println(line);
+                return !out.checkError();
+            });
+            System.err.printf("Analyzed %d positions at depth %d%s in %.1fs%n", n, depth, nodes > 0 ? ", " + nodes + " nodes" : "", (System.currentTimeMillis() - t0) / 1000.0);
+        }
+        pool.shutdown();
+    }
+}
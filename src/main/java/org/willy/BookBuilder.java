@@ -0,0 +1,93 @@
+package org.willy;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Expands every line from the initial position for --plies actions and searches each distinct
+// position to a fixed --depth, one fork-join task per position, all sharing one TT.
+// Both sides' positions are kept, so the book serves the AI whichever colour it plays.
+// Usage: java -cp fanorona.jar org.willy.BookBuilder [--plies=N] [--depth=N] [--threads=N] [--hash=MB] [--out=file]
+class BookBuilder {
+    private final Map<Long, long[]> entries = new ConcurrentHashMap<>();
+    // The most plies any line has left to expand from each position.
+    private final Map<Long, Integer> reached = new ConcurrentHashMap<>();
+    private final TranspositionTable tt;
+    private final ThreadLocal<AIPlayer> players;
+
+    BookBuilder(TranspositionTable tt) {
+        this.tt = tt;
+        players = ThreadLocal.withInitial(() -> {
+            AIPlayer ai = new AIPlayer(tt);
+            ai.verbose = false;
+            ai.ageTable = false;
+            return ai;
+        });
+    }
+
+    @SuppressWarnings("serial") // Tasks are never serialized.
+    private class Expand extends RecursiveAction {
+        final GameState s;
+        final int plies;
+
+        Expand(GameState s, int plies) {
+            this.s = s;
+            this.plies = plies;
+        }
+
+        // A position reached again with more plies left is expanded again, further; it is searched only once.
+        protected void compute() {
+            boolean[] deeper = {false};
+            reached.compute(s.zobristHash, (k, v) -> {
+                if (v != null && v >= plies) return v;
+                deeper[0] = true;
+                return plies;
+            });
+            if (!deeper[0]) return;
+            List<Expand> children = new ArrayList<>();
+            if (plies > 0) {
+                for (Move m : GameLogic.getDetailedMoves(s)) {
+                    GameLogic.StepResult r = GameLogic.step(s, m.actionId);
+                    if (!r.win) children.add(new Expand(r.state, plies - 1));
+                }
+            }
+            invokeAll(children);
+            if (entries.putIfAbsent(s.zobristHash, new long[0]) != null) return;
+            AIPlayer.AIResult res = players.get().think(s, new AIPlayer.StopFlag(Long.MAX_VALUE), null);
+            entries.put(s.zobristHash, new long[]{s.zobristHash, res.score, res.bestMove, res.depth});
+        }
+    }
+
+    long[][] build(GameState root, int plies, ForkJoinPool pool) {
+        tt.newSearch();
+        pool.invoke(new Expand(root, plies));
+        return entries.values().stream().filter(e -> e.length > 0).toArray(long[][]::new);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int plies = 4, depth = 10, threads = Runtime.getRuntime().availableProcessors(), hash = 256;
+        String out = FanoronaServer.BOOK_FILE;
+        for (String arg : args) {
+            if (arg.startsWith("--plies=")) plies = Integer.parseInt(arg.split("=")[1]);
+            if (arg.startsWith("--depth=")) depth = Integer.parseInt(arg.split("=")[1]);
+            if (arg.startsWith("--threads=")) threads = Integer.parseInt(arg.split("=")[1]);
+            if (arg.startsWith("--hash=")) hash = Integer.parseInt(arg.split("=")[1]);
+            if (arg.startsWith("--out=")) out = arg.substring(arg.indexOf('=') + 1);
+        }
+        GameLogic.initTables();
+        Zobrist.init();
+        FanoronaServer.MAX_DEPTH = depth;
+        FanoronaServer.THREADS = 1;
+
+        long t0 = System.currentTimeMillis();
+        BookBuilder b = new BookBuilder(new TranspositionTable(hash));
+        long[][] book = b.build(GameLogic.initialState(), plies, new ForkJoinPool(Math.max(1, threads)));
+        OpeningBook.write(Path.of(out), book, depth);
+        System.out.printf("Book: %d positions to %d plies at depth %d in %.1fs -> %s%n",
+                book.length, plies, depth, (System.currentTimeMillis() - t0) / 1000.0, out);
+    }
+}
@@ -0,0 +1,20 @@
+package org.willy;
+
+// Static evaluation from the side to move's point of view.
+interface Evaluator {
+    int evaluate(GameState s);
+
+    // Called on a search root before its moves are made, so an incremental evaluator can start tracking it.
+    default void attach(GameState s) {
+    }
+
+    // Called by make() on a state this evaluator attached to, after the side to move has stepped from -> to
+    // and victims were taken.
+    default void move(GameState s, int from, int to, long victims) {
+    }
+
+    // The most that taking victims from the opponent of the side to move can add to evaluate(), for delta pruning.
+    default int captureValue(GameState s, long victims) {
+        return Long.bitCount(victims) * 100;
+    }
+}
@@ -3,91 +3,166 @@ package org.willy;
 import com.sun.net.httpserver.HttpServer;
 
 import java.awt.*;
+import java.io.IOException;
 import java.net.BindException;
 import java.net.InetSocketAddress;
 import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.concurrent.Executors;
 
 public class FanoronaServer {
 
     private static final int PORT = 8080;
     static final String MEMORY_FILE = "fanorona_memory.dat";
+    static final String BOOK_FILE = "fanorona_book.bin";
+    static final String TABLEBASE_FILE = "fanorona_tb.bin";
     private static final String HTML_FILE = "game.html";
 
     static boolean HIDE_DETAILED_LOG = true;
 
     // --- Memory Constraints ---
-    static int MAX_MEMORY_ENTRIES = 1000000;
+    static int HASH_MB = 64;
 
     static final int INF = 100000000;
     static final int MATE_SCORE = 90000000;
     static final int MATE_THRESHOLD = 80000000;
     static int MAX_DEPTH = 1000;
     static int Time_LIMIT = 1000;
-
-    static final AIPlayer aiPlayer = new AIPlayer();
+    static int THREADS = 1;
+    static int SESSION_IDLE_MINUTES = 30;
+    static int MAX_SESSIONS = 1000;
+    // WebSocket game channel; 0 turns it off.
+    static int WS_PORT = PORT + 1;
+
+    static int SEARCH_WORKERS = 0;
+    static int SEARCH_QUEUE = 0;
+    static boolean PONDER = true;
+    static SearchConfig SEARCH = new SearchConfig();
+    static Evaluator EVAL = new TableEvaluator();
+
+    static TranspositionTable tt;
+    static OpeningBook book;
+    static Tablebase tablebase;
+    static Sessions sessions;
+    static SearchExecutor searches;
 
     public static void main(String[] args) {
+        String bookFile = BOOK_FILE, tbFile = TABLEBASE_FILE, evalFile = null;
         for (String arg : args) {
             if (arg.startsWith("--depth=")) MAX_DEPTH = Integer.parseInt(arg.split("=")[1]);
             if (arg.startsWith("--time=")) Time_LIMIT = Integer.parseInt(arg.split("=")[1]);
-            if (arg.startsWith("--mem=")) MAX_MEMORY_ENTRIES = Integer.parseInt(arg.split("=")[1]);
+            if (arg.startsWith("--threads=")) THREADS = Math.max(1, Integer.parseInt(arg.split("=")[1]));
+            if (arg.startsWith("--hash=")) HASH_MB = Integer.parseInt(arg.split("=")[1]);
+            if (arg.startsWith("--mem=")) HASH_MB = (int) Math.max(1, Long.parseLong(arg.split("=")[1]) * 16 >> 20);
+            if (arg.startsWith("--search-workers=")) SEARCH_WORKERS = Integer.parseInt(arg.split("=")[1]);
+            if (arg.startsWith("--search-queue=")) SEARCH_QUEUE = Integer.parseInt(arg.split("=")[1]);
+            if (arg.startsWith("--session-idle=")) SESSION_IDLE_MINUTES = Integer.parseInt(arg.split("=")[1]);
+            if (arg.startsWith("--max-sessions=")) MAX_SESSIONS = Math.max(1, Integer.parseInt(arg.split("=")[1]));
+            if (arg.startsWith("--ws-port=")) WS_PORT = Integer.parseInt(arg.split("=")[1]);
             if (arg.startsWith("--debug")) HIDE_DETAILED_LOG = false;
+            if (arg.equals("--no-ponder")) PONDER = false;
+            if (arg.startsWith("--book=")) bookFile = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("--tb=")) tbFile = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("--eval=")) evalFile = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("--disable=")) SEARCH = SearchConfig.parse(arg.substring(arg.indexOf('=') + 1));
         }
 
         try {
             System.out.println("--- Fanorona Server ---");
             GameLogic.initTables();
             Zobrist.init();
+            tt = new TranspositionTable(HASH_MB);
+            sessions = new Sessions(tt, MAX_SESSIONS);
+            // Each search already uses THREADS cores, so size the pool to keep the machine at one search thread per core.
+            int workers = SEARCH_WORKERS > 0 ? SEARCH_WORKERS : Math.max(1, Runtime.getRuntime().availableProcessors() / THREADS);
+            searches = new SearchExecutor(workers, SEARCH_QUEUE > 0 ? SEARCH_QUEUE : workers * 4);
 
-            aiPlayer.loadMemory(MEMORY_FILE);
+            if (evalFile != null) {
+                try {
+                    EVAL = TableEvaluator.load(Path.of(evalFile));
+                    System.out.println("⚖️ Evaluation weights: " + evalFile);
+                } catch (IOException e) {
+                    System.err.println("Evaluation weights ignored: " + e.getMessage());
+                }
+            }
+            AIPlayer.loadMemory(tt, MEMORY_FILE);
+            if (Files.exists(Path.of(bookFile))) {
+                try {
+                    book = OpeningBook.load(Path.of(bookFile));
+                    System.out.println("📖 Opening book: " + book.size() + " positions");
+                } catch (IOException e) {
+                    System.err.println("Opening book ignored: " + e.getMessage());
+                }
+            }
+            if (Files.exists(Path.of(tbFile))) {
+                try {
+                    tablebase = Tablebase.load(Path.of(tbFile));
+                    System.out.println("📚 Endgame tablebase: up to " + tablebase.maxPieces + " pieces");
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Tablebase ignored: " + e.getMessage());
+                }
+            }
 
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
                 System.out.println("\n🛑 System shutting down. Pruning and saving memory...");
-                aiPlayer.saveMemory(MEMORY_FILE);
+                AIPlayer.checkpointMemory(tt, MEMORY_FILE);
             }));
 
             AIPlayer.setupPersistence();
+            sessions.startEviction(SESSION_IDLE_MINUTES);
 
             HttpServer server = HttpServer.create(new InetSocketAddress(PORT), 0);
-            server.createContext("/", ex -> HttpUtil.serveFile(ex, HTML_FILE, "text/html"));
-            server.createContext("/restart", ex -> {
-                aiPlayer.resetGame();
+            server.createContext("/", new StaticAssets().add("/", HTML_FILE, "text/html; charset=utf-8"));
+            server.createContext("/restart", sessions.route((ex, ai) -> {
+                ai.resetGame();
                 HttpUtil.sendJson(ex, "{\"status\": \"ok\"}");
-            });
+            }));
             server.createContext("/get_state", ex -> {
-                String b = JsonUtil.getBody(ex);
-                GameState state = GameLogic.fromJson(JsonUtil.JsonParser.parse(b));
-                HttpUtil.sendJson(ex, "{\"moves\": " + JsonUtil.movesToJson(GameLogic.getDetailedMoves(state)) + "}");
-            });
-            server.createContext("/move", new MoveHandler());
-            server.createContext("/ai", ex -> {
+                GameState state;
                 try {
-                    String b = JsonUtil.getBody(ex);
-                    GameState state = GameLogic.fromJson(JsonUtil.JsonParser.parse(b));
-                    AIPlayer.AIResult res = aiPlayer.think(state);
-
-                    String displayPv = res.pv;
-                    String safePv = displayPv.replace("\"", "'").replace("\n", " ");
-
-                    String json = String.format(
-                            "{\"action_id\": %d, \"score\": %d, \"strategy\": \"%s\", \"pv\": \"%s\"}",
-                            res.bestMove, res.score, res.strategy, safePv);
-
-                    HttpUtil.sendJson(ex, json);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    HttpUtil.sendJson(ex, "{\"error\":\"AI Logic Error\"}");
+                    state = Wire.sent(ex) ? Wire.read(ex).state : JsonUtil.read(ex).state();
+                } catch (IllegalArgumentException e) {
+                    HttpUtil.sendError(ex, 400, e.getMessage());
+                    return;
                 }
+                if (Wire.wanted(ex)) Wire.writer().moves(state).send(ex);
+                else HttpUtil.sendJson(ex, JsonUtil.writer().raw("{\"moves\": ").moves(state).raw("}"));
             });
+            server.createContext("/move", sessions.route(new MoveHandler()));
+            server.createContext("/game/new", sessions.route(GameHandlers.newGame()));
+            server.createContext("/game/state", sessions.route(GameHandlers.state()));
+            server.createContext("/game/move", sessions.route(GameHandlers.move()));
+            server.createContext("/game/ai", sessions.route(GameHandlers.ai()));
+            server.createContext("/ai", sessions.route(new AIHandler()));
+            AsyncSearches async = new AsyncSearches();
+            server.createContext("/ai/start", sessions.route(async.start()));
+            server.createContext("/ai/stream", async.stream());
+            server.createContext("/ai/poll", async.poll());
+            server.createContext("/ai/stop", async.stop(false));
+            server.createContext("/ai/cancel", async.stop(true));
             server.createContext("/memory_stats", ex -> {
                 try {
-                    String json = String.format("{\"count\": %d}", aiPlayer.getMemorySize());
+                    String json = String.format("{\"count\": %d, \"sessions\": %d}", tt.size(), sessions.size());
                     HttpUtil.sendJson(ex, json);
                 } catch (Exception e) {
                     HttpUtil.sendJson(ex, "{\"count\": 0}");
                 }
             });
+            int wsPort = 0;
+            if (WS_PORT > 0) {
+                try {
+                    GameSocket socket = new GameSocket(sessions, WS_PORT, SESSION_IDLE_MINUTES);
+                    socket.start();
+                    wsPort = socket.port();
+                } catch (BindException e) {
+                    System.err.println("WebSocket port " + WS_PORT + " occupied; game channel disabled.");
+                }
+            }
+            String channel = "{\"ws_port\": " + wsPort + "}";
+            server.createContext("/channel", ex -> HttpUtil.sendJson(ex, channel));
+            server.createContext("/analyze_batch", BatchAnalyzer.handler());
+            server.createContext("/search_stats", ex -> HttpUtil.sendJson(ex, searches.statsJson()));
 
             server.setExecutor(Executors.newCachedThreadPool());
             server.start();
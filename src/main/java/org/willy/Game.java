@@ -0,0 +1,39 @@
+package org.willy;
+
+// The authoritative game of one session. Clients name only the action to play, which is checked against
+// this position, and get back what it changed instead of resending and reloading the whole board.
+// Guarded by the session's AIPlayer like everything else in the session.
+class Game {
+    GameState state = GameLogic.initialState();
+    // Actions played in this game, and games started in the session: a search started on an older
+    // ply or game must not be played.
+    int ply, number;
+    // The last action played, the pieces it took and whether it won.
+    int action = -1;
+    long victims;
+    boolean win;
+
+    void reset() {
+        state = GameLogic.initialState();
+        ply = 0;
+        number++;
+        action = -1;
+        victims = 0;
+        win = false;
+    }
+
+    // Plays aid for the side to move, with the session's bookkeeping. False, leaving the game unchanged, if it is not legal.
+    boolean play(AIPlayer ai, int aid) {
+        if (win || !GameLogic.legal(state, aid)) return false;
+        victims = GameLogic.victimsOf(state, aid);
+        action = aid;
+        win = MoveHandler.apply(ai, state, aid);
+        ply++;
+        return true;
+    }
+
+    // Won, or the side to move is stuck at the start of its turn.
+    boolean over() {
+        return win || !state.inCombo && GameLogic.getDetailedMoves(state).isEmpty();
+    }
+}
@@ -0,0 +1,105 @@
+package org.willy;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+
+// The server-side game of a session (see Game): clients send action ids and read back deltas.
+//   POST /game/new     start over; replies with the game in full
+//   GET  /game/state   the game in full, for a client that lost track
+//   POST /game/move    {"action_id":A, "ply":N} (ply optional); replies with the delta, 409 if N is not the current ply
+//   POST /game/ai      the AI plays the side to move; replies with the delta plus score, strategy and pv
+// All of them speak the binary encoding of Wire as well.
+class GameHandlers {
+    static Sessions.GameHandler newGame() {
+        return (ex, ai, game) -> {
+            ai.resetGame();
+            game.reset();
+            sendGame(ex, game);
+        };
+    }
+
+    static Sessions.GameHandler state() {
+        return (ex, ai, game) -> sendGame(ex, game);
+    }
+
+    static Sessions.GameHandler move() {
+        return (ex, ai, game) -> {
+            int aid, ply;
+            if (Wire.sent(ex)) {
+                Wire w = Wire.action(ex);
+                aid = w.actionId;
+                ply = w.ply;
+            } else {
+                JsonUtil.Reader r = JsonUtil.read(ex);
+                aid = r.actionId;
+                ply = r.ply;
+            }
+            if (ply >= 0 && ply != game.ply) HttpUtil.sendError(ex, 409, "Game is at ply " + game.ply);
+            else if (!game.play(ai, aid)) HttpUtil.sendError(ex, 400, "Illegal action " + aid);
+            else if (Wire.wanted(ex)) Wire.writer().delta(game).send(ex);
+            else HttpUtil.sendJson(ex, JsonUtil.writer().raw("{").delta(game).raw("}"));
+        };
+    }
+
+    // Searches a copy of the game like /ai, then plays the result unless the game moved on meanwhile.
+    static Sessions.GameHandler ai() {
+        return (ex, ai, game) -> {
+            if (game.over()) {
+                HttpUtil.sendJson(ex, 409, "{\"error\": \"Game over\"}");
+                return;
+            }
+            GameState state = game.state.copy();
+            int number = game.number, ply = game.ply;
+            if (!ai.searching.compareAndSet(false, true)) {
+                HttpUtil.sendJson(ex, 409, "{\"error\":\"Session busy: a search is already running\"}");
+                return;
+            }
+            if (ai.promotePonder(state, FanoronaServer.Time_LIMIT, null, res -> {
+                try {
+                    if (res != null) play(ex, ai, game, number, ply, res);
+                    else HttpUtil.sendJson(ex, "{\"error\":\"AI Logic Error\"}");
+                } catch (IOException ignored) {
+                } finally {
+                    ai.searching.set(false);
+                }
+            }) != null) return;
+            SearchExecutor searches = FanoronaServer.searches;
+            boolean queued = searches.submit(ai, wait -> {
+                try {
+                    long budget = searches.budget(wait, FanoronaServer.Time_LIMIT);
+                    if (budget < 0) {
+                        HttpUtil.sendJson(ex, 503, "{\"error\":\"Search queue timeout\"}");
+                        return;
+                    }
+                    synchronized (ai) {
+                        play(ex, ai, game, number, ply, ai.think(state, budget));
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    try {
+                        HttpUtil.sendJson(ex, "{\"error\":\"AI Logic Error\"}");
+                    } catch (IOException ignored) {
+                    }
+                }
+            });
+            if (!queued) HttpUtil.sendJson(ex, 503, "{\"error\":\"Server busy\"}");
+        };
+    }
+
+    // Called holding the session lock.
+    private static void play(HttpExchange ex, AIPlayer ai, Game game, int number, int ply, AIPlayer.AIResult res) throws IOException {
+        if (game.number != number || game.ply != ply || !game.play(ai, res.bestMove)) {
+            HttpUtil.sendJson(ex, 409, "{\"error\": \"Game moved on during the search\"}");
+            return;
+        }
+        if (Wire.wanted(ex)) Wire.writer().delta(game).i32(res.score).str(res.strategy).str(res.pv).send(ex);
+        else HttpUtil.sendJson(ex, JsonUtil.writer().raw("{").delta(game).raw(",\"score\":").num(res.score)
+                .raw(",\"strategy\":").str(res.strategy).raw(",\"pv\":").str(res.pv).raw("}"));
+    }
+
+    private static void sendGame(HttpExchange ex, Game game) throws IOException {
+        if (Wire.wanted(ex)) Wire.writer().game(game).send(ex);
+        else HttpUtil.sendJson(ex, JsonUtil.writer().raw("{").game(game).raw("}"));
+    }
+}
@@ -6,10 +6,21 @@ import java.util.List;
 
 class GameLogic {
     static final int NUM_POS = 45;
+    static final int MAX_MOVES = 256;
+    // Search-only null move: hands a turn-start position to the opponent unchanged. Never generated.
+    static final int PASS = 721;
     private static final int[][] ADJ_INDEX = new int[NUM_POS][8];
     private static final int[] OPPOSITE_DIR = {4, 5, 6, 7, 0, 1, 2, 3};
     private static final int[] DR = {-1, -1, 0, 1, 1, 1, 0, -1};
     private static final int[] DC = {0, 1, 1, 1, 0, -1, -1, -1};
+    // Bit-index delta of one step in each direction; directions 2-5 move to higher squares.
+    private static final int[] SHIFT = {-9, -8, 1, 10, 9, 8, -1, -10};
+    static final long BOARD = (1L << 45) - 1;
+    // RAY[s][d]: every square beyond s along its line in direction d. STEPS[d]: squares that have a neighbour in d.
+    // DIRS[s]: the directions with a neighbour, ascending, so generators skip the missing ones without a test.
+    static final long[][] RAY = new long[NUM_POS][8];
+    private static final long[] STEPS = new long[8];
+    private static final int[][] DIRS = new int[NUM_POS][];
     static final String[] POS_NAMES = new String[45];
     static final int[] POS_R = new int[45];
     static final int[] POS_C = new int[45];
@@ -28,107 +39,201 @@ class GameLogic {
             moves.add(new Move(720, -1, -1, "stop", Collections.emptyList()));
             return moves;
         }
+        boolean onlyC = canCapture(s.myPieces, s.oppPieces, empty(s), -1);
         long temp = s.myPieces;
-        boolean canC = false;
         while (temp != 0) {
             int p = Long.numberOfTrailingZeros(temp);
-            if (generateMovesForPiece(s, p, moves, true)) canC = true;
-            temp &= (temp - 1);
-        }
-        if (canC) return moves;
-        temp = s.myPieces;
-        while (temp != 0) {
-            int p = Long.numberOfTrailingZeros(temp);
-            generateMovesForPiece(s, p, moves, false);
+            generateMovesForPiece(s, p, moves, onlyC);
             temp &= (temp - 1);
         }
         return moves;
     }
 
     public static boolean hasCaptureMoves(GameState s, int p) {
-        long occ = s.myPieces | s.oppPieces;
+        return canCapture(1L << p, s.oppPieces, empty(s), s.inCombo ? s.lastDir : -1);
+    }
+
+    // Number of single steps movers could make onto empty squares, all directions at once.
+    static int mobility(long movers, long empty) {
+        int n = 0;
+        for (int d = 0; d < 8; d++) n += Long.bitCount(shift(movers & STEPS[d], d) & empty);
+        return n;
+    }
+
+    // Whether the side to move at a turn start has a capture, which it is then forced to make.
+    static boolean mustCapture(GameState s) {
+        return canCapture(s.myPieces, s.oppPieces, empty(s), -1);
+    }
+
+    private static long empty(GameState s) {
+        return BOARD & ~(s.myPieces | s.oppPieces | (s.inCombo ? s.visitedMask : 0));
+    }
+
+    private static long shift(long x, int d) {
+        int k = SHIFT[d];
+        return k > 0 ? x << k : x >>> -k;
+    }
+
+    // Whether any of movers can capture, checked for all of them at once one direction at a time:
+    // the steps onto empty squares, then the square beyond each target (approach) and behind each mover (withdrawal).
+    static boolean canCapture(long movers, long enemy, long empty, int skipDir) {
         for (int d = 0; d < 8; d++) {
+            if (d == skipDir) continue;
+            long to = shift(movers & STEPS[d], d) & empty;
+            if (to == 0) continue;
+            if ((shift(to & STEPS[d], d) & enemy) != 0) return true;
+            int o = OPPOSITE_DIR[d];
+            if ((shift(shift(to, o) & STEPS[o], o) & enemy) != 0) return true;
+        }
+        return false;
+    }
+
+    // The unbroken run of enemy pieces starting next to start in direction d: the ray up to its nearest non-enemy square.
+    static long run(long enemy, int start, int d) {
+        long ray = RAY[start][d], stop = ray & ~enemy;
+        if (stop == 0) return ray;
+        return SHIFT[d] > 0 ? ray & ((stop & -stop) - 1) : ray & (-2L << (63 - Long.numberOfLeadingZeros(stop)));
+    }
+
+    private static void generateMovesForPiece(GameState s, int p, List<Move> list, boolean onlyC) {
+        long empty = empty(s);
+        for (int d : DIRS[p]) {
             if (s.inCombo && d == s.lastDir) continue;
             int t = ADJ_INDEX[p][d];
-            if (t == -1 || (occ & (1L << t)) != 0 || (s.inCombo && (s.visitedMask & (1L << t)) != 0)) continue;
-            int av = ADJ_INDEX[t][d];
-            if (av != -1 && (s.oppPieces & (1L << av)) != 0) return true;
-            int wv = ADJ_INDEX[p][OPPOSITE_DIR[d]];
-            if (wv != -1 && (s.oppPieces & (1L << wv)) != 0) return true;
+            if ((empty & (1L << t)) == 0) continue;
+            long av = run(s.oppPieces, t, d);
+            long wv = run(s.oppPieces, p, OPPOSITE_DIR[d]);
+            if (av != 0) list.add(new Move(p * 8 + d, p, t, "approach", trace(av, d)));
+            if (wv != 0) list.add(new Move(p * 8 + d + 360, p, t, "withdrawal", trace(wv, OPPOSITE_DIR[d])));
+            if (!onlyC && av == 0 && wv == 0) list.add(new Move(p * 8 + d, p, t, "move", Collections.emptyList()));
         }
-        return false;
     }
 
-    private static boolean generateMovesForPiece(GameState s, int p, List<Move> list, boolean onlyC) {
-        boolean f = false;
-        long occ = s.myPieces | s.oppPieces;
-        for (int d = 0; d < 8; d++) {
+    // Search-only generator: same moves and order as getDetailedMoves, written into caller-owned buffers.
+    static int generate(GameState s, int[] actions, long[] victims) {
+        if (s.inCombo) {
+            int n = generateForPiece(s, s.comboPiece, actions, victims, 0, true);
+            actions[n] = 720;
+            victims[n] = 0;
+            return n + 1;
+        }
+        int n = 0;
+        boolean onlyC = canCapture(s.myPieces, s.oppPieces, empty(s), -1);
+        for (long temp = s.myPieces; temp != 0; temp &= (temp - 1)) {
+            n = generateForPiece(s, Long.numberOfTrailingZeros(temp), actions, victims, n, onlyC);
+        }
+        return n;
+    }
+
+    private static int generateForPiece(GameState s, int p, int[] actions, long[] victims, int n, boolean onlyC) {
+        long empty = empty(s);
+        for (int d : DIRS[p]) {
             if (s.inCombo && d == s.lastDir) continue;
             int t = ADJ_INDEX[p][d];
-            if (t == -1 || (occ & (1L << t)) != 0 || (s.inCombo && (s.visitedMask & (1L << t)) != 0)) continue;
-            int av = ADJ_INDEX[t][d];
-            boolean isA = (av != -1 && (s.oppPieces & (1L << av)) != 0);
-            int wv = ADJ_INDEX[p][OPPOSITE_DIR[d]];
-            boolean isW = (wv != -1 && (s.oppPieces & (1L << wv)) != 0);
-            if (isA) {
-                list.add(new Move(p * 8 + d, p, t, "approach", trace(s.oppPieces, t, d)));
-                f = true;
+            if ((empty & (1L << t)) == 0) continue;
+            long av = run(s.oppPieces, t, d);
+            long wv = run(s.oppPieces, p, OPPOSITE_DIR[d]);
+            if (av != 0) {
+                actions[n] = p * 8 + d;
+                victims[n++] = av;
             }
-            if (isW) {
-                list.add(new Move(p * 8 + d + 360, p, t, "withdrawal", trace(s.oppPieces, p, OPPOSITE_DIR[d])));
-                f = true;
+            if (wv != 0) {
+                actions[n] = p * 8 + d + 360;
+                victims[n++] = wv;
             }
-            if (!onlyC && !isA && !isW) {
-                list.add(new Move(p * 8 + d, p, t, "move", Collections.emptyList()));
-                f = true;
+            if (!onlyC && av == 0 && wv == 0) {
+                actions[n] = p * 8 + d;
+                victims[n++] = 0;
             }
         }
-        return f;
+        return n;
     }
 
-    private static List<Integer> trace(long enemy, int start, int d) {
-        List<Integer> v = new ArrayList<>();
-        int c = ADJ_INDEX[start][d];
-        while (c != -1 && (enemy & (1L << c)) != 0) {
-            v.add(c);
-            c = ADJ_INDEX[c][d];
-        }
+    static int from(int action) {
+        return action >= 720 ? -1 : (action % 360) / 8;
+    }
+
+    static int to(int action) {
+        return action >= 720 ? -1 : ADJ_INDEX[(action % 360) / 8][action % 8];
+    }
+
+    // "f3-e3" for approach and quiet moves, "f3-e3w" for withdrawal, "stop" for 720.
+    static String describe(int action) {
+        if (action == PASS) return "pass";
+        if (action >= 720) return "stop";
+        String mv = POS_NAMES[from(action)] + "-" + POS_NAMES[to(action)];
+        return action >= 360 ? mv + "w" : mv;
+    }
+
+    // Whether the victims of a capture lie towards lower squares, so nearest first is descending.
+    static boolean victimsDescend(int action) {
+        int d = action % 8;
+        return SHIFT[action >= 360 ? OPPOSITE_DIR[d] : d] < 0;
+    }
+
+    static long victimsOf(GameState s, int action) {
+        if (action >= 720) return 0;
+        int norm = action % 360, fIdx = norm / 8, dIdx = norm % 8;
+        return action >= 360 ? run(s.oppPieces, fIdx, OPPOSITE_DIR[dIdx]) : run(s.oppPieces, ADJ_INDEX[fIdx][dIdx], dIdx);
+    }
+
+    // Victim squares nearest first, as the UI animates them.
+    private static List<Integer> trace(long victims, int d) {
+        List<Integer> v = new ArrayList<>(Long.bitCount(victims));
+        for (long t = victims; t != 0; t &= t - 1) v.add(Long.numberOfTrailingZeros(t));
+        if (SHIFT[d] < 0) Collections.reverse(v);
         return v;
     }
 
     public static StepResult step(GameState state, int action) {
         GameState next = state.copy();
-        if (action == 720) {
-            endTurn(next);
-            next.initHash();
-            return new StepResult(next, false);
+        boolean win = make(next, action, victimsOf(state, action));
+        return new StepResult(next, win);
+    }
+
+    // Applies action in place; victims must be victimsOf(s, action). Returns true if the mover wins.
+    // The hash is updated incrementally from the moved, captured and visited squares.
+    static boolean make(GameState s, int action, long victims) {
+        if (action >= 720) {
+            endTurn(s);
+            return false;
         }
-        boolean isWd = action >= 360;
-        int norm = isWd ? action - 360 : action;
+        int norm = action % 360;
         int fIdx = norm / 8, dIdx = norm % 8, tIdx = ADJ_INDEX[fIdx][dIdx];
-        next.myPieces &= ~(1L << fIdx);
-        next.myPieces |= (1L << tIdx);
-        List<Integer> victims = isWd ? trace(state.oppPieces, fIdx, OPPOSITE_DIR[dIdx]) :
-                ((ADJ_INDEX[tIdx][dIdx] != -1 && (state.oppPieces & (1L << ADJ_INDEX[tIdx][dIdx])) != 0) ? trace(state.oppPieces, tIdx, dIdx) : Collections.emptyList());
-        for (int v : victims) next.oppPieces &= ~(1L << v);
-        if (!next.inCombo) next.visitedMask = (1L << fIdx);
-        next.visitedMask |= (1L << tIdx);
-        if (!victims.isEmpty()) {
-            if (next.oppPieces == 0) {
-                next.initHash();
-                return new StepResult(next, true);
+        int c = s.player == 1 ? 0 : 1;
+        long h = s.zobristHash ^ Zobrist.P[fIdx][c] ^ Zobrist.P[tIdx][c] ^ Zobrist.pieces(victims, 1 - c);
+        s.myPieces &= ~(1L << fIdx);
+        s.myPieces |= (1L << tIdx);
+        s.oppPieces &= ~victims;
+        if (s.eval != null) s.eval.move(s, fIdx, tIdx, victims);
+        if (!s.inCombo) {
+            h ^= Zobrist.visited(s.visitedMask) ^ Zobrist.VISITED[fIdx];
+            s.visitedMask = (1L << fIdx);
+        }
+        if ((s.visitedMask & (1L << tIdx)) == 0) h ^= Zobrist.VISITED[tIdx];
+        s.visitedMask |= (1L << tIdx);
+        if (victims != 0) {
+            if (s.oppPieces == 0) {
+                s.zobristHash = h;
+                return true;
             }
-            next.prevPos = fIdx;
-            next.comboPiece = tIdx;
-            next.inCombo = true;
-            next.lastDir = dIdx;
-            if (!hasCaptureMoves(next, tIdx)) endTurn(next);
-        } else endTurn(next);
-        next.initHash();
-        return new StepResult(next, false);
+            if (s.comboPiece != -1) h ^= Zobrist.COMBO[s.comboPiece];
+            if (s.lastDir != -1) h ^= Zobrist.DIR[s.lastDir];
+            s.prevPos = fIdx;
+            s.comboPiece = tIdx;
+            s.inCombo = true;
+            s.lastDir = dIdx;
+            s.zobristHash = h ^ Zobrist.COMBO[tIdx] ^ Zobrist.DIR[dIdx];
+            if (!hasCaptureMoves(s, tIdx)) endTurn(s);
+        } else {
+            s.zobristHash = h;
+            endTurn(s);
+        }
+        return false;
     }
 
     private static void endTurn(GameState s) {
+        s.zobristHash ^= Zobrist.combo(s) ^ Zobrist.T;
         long temp = s.myPieces;
         s.myPieces = s.oppPieces;
         s.oppPieces = temp;
@@ -140,23 +245,66 @@ class GameLogic {
         s.visitedMask = 0;
     }
 
-    public static GameState fromJson(JsonUtil.JsonObject j) {
+    // Loads the position j last read into s, which may be a reused state.
+    static GameState fromJson(JsonUtil.Reader j, GameState s) {
+        if (!j.hasBoard || !j.hasPlayer) throw new IllegalArgumentException("position needs board and player");
+        return load(s, j.player, j.white, j.black, j.inCombo, j.comboPiece, j.prevPos, j.visited);
+    }
+
+    // Sets s to a client position given from White's (player 1) side; -1 for no combo piece or previous square.
+    // Positions no game can reach the shape of (overlapping pieces, a combo without its piece or last step) are refused.
+    static GameState load(GameState s, int player, long white, long black, boolean inCombo, int comboPiece, int prevPos, long visited) {
+        if (player != 1 && player != -1) throw new IllegalArgumentException("player must be 1 or -1");
+        if (((white | black | visited) & ~BOARD) != 0 || (white & black) != 0)
+            throw new IllegalArgumentException("pieces must be on distinct board squares");
+        s.player = player;
+        s.myPieces = player == 1 ? white : black;
+        s.oppPieces = player == 1 ? black : white;
+        s.inCombo = inCombo;
+        s.comboPiece = comboPiece;
+        s.prevPos = prevPos;
+        s.visitedMask = visited;
+        s.lastDir = -1;
+        s.eval = null;
+        if (s.inCombo) {
+            if (comboPiece < 0 || comboPiece >= NUM_POS || (s.myPieces >>> comboPiece & 1) == 0 || prevPos < 0 || prevPos >= NUM_POS)
+                throw new IllegalArgumentException("combo needs a piece of the side to move and its previous square");
+            for (int d = 0; d < 8; d++)
+                if (ADJ_INDEX[prevPos][d] == comboPiece) {
+                    s.lastDir = d;
+                    break;
+                }
+            if (s.lastDir == -1) throw new IllegalArgumentException("combo piece must neighbour its previous square");
+        }
+        s.initHash();
+        return s;
+    }
+
+    // Whether action is one of generate(s)'s moves, decided from the action alone.
+    static boolean legal(GameState s, int action) {
+        if (action == 720) return s.inCombo;
+        if (action < 0 || action > 720) return false;
+        int norm = action % 360, p = norm / 8, d = norm % 8, t = ADJ_INDEX[p][d];
+        if (t == -1 || (s.myPieces >>> p & 1) == 0 || (empty(s) >>> t & 1) == 0) return false;
+        if (s.inCombo && (p != s.comboPiece || d == s.lastDir)) return false;
+        if (victimsOf(s, action) != 0) return true;
+        return action < 360 && !s.inCombo && !mustCapture(s);
+    }
+
+    static GameState fromJson(String json) {
+        return fromJson(JsonUtil.parse(json), new GameState());
+    }
+
+    // Same starting board as game.html: White (1) on rows 0-1, Black on rows 3-4, alternating middle row.
+    static GameState initialState() {
         GameState s = new GameState();
-        int[] arr = j.getIntArray("board");
-        s.player = j.getInt("player");
+        int[] mid = {1, -1, 1, -1, 0, 1, -1, 1, -1};
         for (int i = 0; i < NUM_POS; i++) {
-            if (arr[i] == s.player) s.myPieces |= (1L << i);
-            else if (arr[i] != 0) s.oppPieces |= (1L << i);
+            int v = i < 18 ? 1 : i >= 27 ? -1 : mid[i - 18];
+            if (v == 1) s.myPieces |= (1L << i);
+            else if (v == -1) s.oppPieces |= (1L << i);
         }
-        s.inCombo = j.getBoolean("inCombo");
-        s.comboPiece = j.has("comboPiece") && !j.isNull("comboPiece") ? j.getInt("comboPiece") : -1;
-        s.prevPos = j.has("prevPos") && !j.isNull("prevPos") ? j.getInt("prevPos") : -1;
-        if (j.has("visited")) for (int v : j.getIntArray("visited")) s.visitedMask |= (1L << v);
-        if (s.inCombo && s.prevPos != -1 && s.comboPiece != -1) for (int d = 0; d < 8; d++)
-            if (ADJ_INDEX[s.prevPos][d] == s.comboPiece) {
-                s.lastDir = d;
-                break;
-            }
+        s.player = 1;
         s.initHash();
         return s;
     }
@@ -177,6 +325,18 @@ class GameLogic {
                 }
             }
         }
+        for (int p = 0; p < NUM_POS; p++) {
+            int n = 0;
+            for (int d = 0; d < 8; d++) {
+                RAY[p][d] = 0;
+                if (ADJ_INDEX[p][d] == -1) continue;
+                STEPS[d] |= 1L << p;
+                n++;
+                for (int c = ADJ_INDEX[p][d]; c != -1; c = ADJ_INDEX[c][d]) RAY[p][d] |= 1L << c;
+            }
+            DIRS[p] = new int[n];
+            for (int d = 0, i = 0; d < 8; d++) if (ADJ_INDEX[p][d] != -1) DIRS[p][i++] = d;
+        }
     }
 
     static class StepResult {
@@ -0,0 +1,446 @@
+package org.willy;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// The game as one WebSocket (RFC 6455) per client on its own port, instead of a /game/move and /game/ai
+// round trip per action. It plays the session's server-side Game (the ?game= query of the upgrade request).
+// Text messages are JSON objects with an "op" and "tx", the client's game number that every reply echoes:
+//   {"op":"new","ai":S,"tx":N}                  start over with the AI playing S (0 for none); reply with the game
+//   {"op":"state","ai":S,"tx":N}                reply with the game in full, e.g. after reconnecting
+//   {"op":"move","action_id":A,"ply":P,"tx":N}  play A (ply optional, as for /game/move); reply with the delta
+// The game in full is {"op":"state","tx":N, ply, position, "win":b, "moves":[...]}, a delta is {"op":"move","tx":N,...}
+// as /game/move returns it. While the side to move is S the server then plays the AI's turn, pushing
+// {"op":"ai", score, strategy, pv} plus the delta for each action, until the turn passes, the game is won or a
+// newer tx arrives. Failures are {"op":"error","tx":N,"error":"..."}.
+class GameSocket {
+    private static final String GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final int MAX_MESSAGE = 1 << 16;
+    private static final int TEXT = 1, CLOSE = 8, PING = 9, PONG = 10;
+    // Each connection holds a thread; past this many, new ones are refused with 503.
+    private static final int MAX_CONNECTIONS = 256;
+    private static final int MAX_HEADERS = 64;
+    private static final int HANDSHAKE_TIMEOUT_MS = 10_000;
+
+    private final Sessions sessions;
+    private final ServerSocket server;
+    // A connection quiet for this long is closed, as its session would be evicted.
+    private final int idleMs;
+    private final ExecutorService connections = new ThreadPoolExecutor(0, MAX_CONNECTIONS, 60, TimeUnit.SECONDS,
+            new SynchronousQueue<>(), r -> {
+        Thread t = new Thread(r, "game-socket");
+        t.setDaemon(true);
+        return t;
+    });
+
+    GameSocket(Sessions sessions, int port, int idleMinutes) throws IOException {
+        this.sessions = sessions;
+        this.server = new ServerSocket(port);
+        this.idleMs = (int) Math.min(Integer.MAX_VALUE, TimeUnit.MINUTES.toMillis(idleMinutes));
+    }
+
+    int port() {
+        return server.getLocalPort();
+    }
+
+    void start() {
+        Thread t = new Thread(() -> {
+            while (!server.isClosed()) {
+                try {
+                    Socket s = server.accept();
+                    try {
+                        connections.execute(() -> serve(s));
+                    } catch (RejectedExecutionException e) {
+                        refuse(s);
+                    }
+                } catch (IOException e) {
+                    if (!server.isClosed()) e.printStackTrace();
+                }
+            }
+        }, "game-socket-accept");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private final class Connection {
+        final Socket socket;
+        final DataInputStream in;
+        final OutputStream out;
+        Sessions.Session session;
+        // The tx of the client's latest message; an AI turn for an older one stops.
+        volatile int tx;
+        // The side the AI plays in this connection's game, 0 for none.
+        volatile int side;
+        // The AI turn's running search, stopped when a newer tx arrives so the reader never waits out its budget.
+        volatile AIPlayer.StopFlag search;
+        // Whether one of this connection's AI turns holds the session's search, and whether a newer message
+        // wants another once it ends; guarded by turns.
+        final Object turns = new Object();
+        boolean turning, pending;
+        byte[] message = new byte[1024];
+        int length;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        synchronized void send(int opcode, byte[] b, int len) throws IOException {
+            header(opcode, len);
+            out.write(b, 0, len);
+            out.flush();
+        }
+
+        synchronized void send(JsonUtil.Writer w) throws IOException {
+            header(TEXT, w.length());
+            w.writeTo(out);
+            out.flush();
+        }
+
+        private void header(int opcode, int len) throws IOException {
+            out.write(0x80 | opcode);
+            if (len < 126) out.write(len);
+            else if (len < 65536) {
+                out.write(126);
+                out.write(len >>> 8);
+                out.write(len);
+            } else {
+                out.write(127);
+                for (int i = 7; i >= 0; i--) out.write((int) ((long) len >>> (8 * i)));
+            }
+        }
+
+        void error(int tx, String msg) throws IOException {
+            send(GameSocket.error(tx, msg));
+        }
+
+        // For a job that has nobody to report a broken connection to.
+        void tryError(int tx, String msg) {
+            try {
+                error(tx, msg);
+            } catch (IOException ignored) {
+            }
+        }
+
+        // Reads the next data message into message[0..length), answering pings on the way.
+        // Returns its opcode, or -1 once the peer has closed or broken the protocol.
+        int read() throws IOException {
+            int opcode = 0;
+            length = 0;
+            while (true) {
+                int b0 = in.readUnsignedByte(), b1 = in.readUnsignedByte();
+                int op = b0 & 0x0F;
+                long len = b1 & 0x7F;
+                if (len == 126) len = in.readUnsignedShort();
+                else if (len == 127) len = in.readLong();
+                if ((b1 & 0x80) == 0) return fail(1002);
+                if (len < 0 || length + len > MAX_MESSAGE) return fail(1009);
+                byte[] mask = new byte[4];
+                in.readFully(mask);
+                if (op >= CLOSE) {
+                    byte[] body = new byte[(int) len];
+                    in.readFully(body);
+                    for (int i = 0; i < body.length; i++) body[i] ^= mask[i & 3];
+                    if (op == CLOSE) {
+                        send(CLOSE, body, Math.min(body.length, 2));
+                        return -1;
+                    }
+                    if (op == PING) send(PONG, body, body.length);
+                    continue;
+                }
+                if (op != 0) opcode = op;
+                if (message.length < length + len) message = Arrays.copyOf(message, Math.max(2 * message.length, length + (int) len));
+                in.readFully(message, length, (int) len);
+                for (int i = 0; i < len; i++) message[length + i] ^= mask[i & 3];
+                length += (int) len;
+                if ((b0 & 0x80) != 0) return opcode;
+            }
+        }
+
+        private int fail(int status) throws IOException {
+            send(CLOSE, new byte[]{(byte) (status >>> 8), (byte) status}, 2);
+            return -1;
+        }
+    }
+
+    private static void refuse(Socket s) {
+        try (s) {
+            s.getOutputStream().write("HTTP/1.1 503 Service Unavailable\r\nContent-Length: 0\r\nConnection: close\r\n\r\n"
+                    .getBytes(StandardCharsets.US_ASCII));
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void serve(Socket socket) {
+        Connection c = null;
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(HANDSHAKE_TIMEOUT_MS);
+            c = new Connection(socket);
+            String game = handshake(c);
+            if (game == null) return;
+            Sessions.Session session = sessions.session(game);
+            if (session == null) {
+                c.send(CLOSE, new byte[]{1013 >>> 8, (byte) 1013}, 2);
+                return;
+            }
+            session.channels.incrementAndGet();
+            c.session = session;
+            socket.setSoTimeout(idleMs);
+            for (int op; (op = c.read()) >= 0; ) {
+                // Every message counts as use of the session, not just the one that opened the channel.
+                c.session.lastSeen = System.currentTimeMillis();
+                if (op != TEXT) continue;
+                JsonUtil.Reader r;
+                try {
+                    r = JsonUtil.read(new ByteArrayInputStream(c.message, 0, c.length));
+                } catch (IllegalArgumentException e) {
+                    c.error(c.tx, e.getMessage());
+                    continue;
+                }
+                boolean stale = r.tx != c.tx || r.op("new");
+                c.tx = r.tx;
+                AIPlayer.StopFlag search = c.search;
+                if (stale && search != null) search.set = search.cancelled = true;
+                handle(c, r);
+            }
+        } catch (EOFException | SocketTimeoutException ignored) {
+        } catch (IOException e) {
+            if (!"Connection reset".equals(e.getMessage()) && !"Socket closed".equals(e.getMessage())) e.printStackTrace();
+        } finally {
+            if (c != null && c.session != null) {
+                c.session.lastSeen = System.currentTimeMillis();
+                c.session.channels.decrementAndGet();
+            }
+        }
+    }
+
+    // Reads the upgrade request and answers it; returns the game id, or null after refusing it.
+    private String handshake(Connection c) throws IOException {
+        String line = line(c.in), game = null;
+        Map<String, String> headers = new HashMap<>();
+        int count = 0;
+        for (String h; !(h = line(c.in)).isEmpty(); ) {
+            if (++count > MAX_HEADERS) return reject(c, "431 Request Header Fields Too Large");
+            int colon = h.indexOf(':');
+            if (colon > 0) headers.put(h.substring(0, colon).trim().toLowerCase(), h.substring(colon + 1).trim());
+        }
+        String key = headers.get("sec-websocket-key");
+        if (!line.startsWith("GET ") || key == null || !"websocket".equalsIgnoreCase(headers.get("upgrade")))
+            return reject(c, "400 Bad Request");
+        // Browsers send the page's Origin, and any page may open a socket: only the server's own pages get one.
+        String origin = headers.get("origin");
+        if (origin != null && !sameHost(origin, headers.get("host"))) return reject(c, "403 Forbidden");
+        int q = line.indexOf('?'), end = line.indexOf(' ', 4);
+        if (q > 0 && q < end) for (String p : line.substring(q + 1, end).split("&")) if (p.startsWith("game=")) game = p.substring(5);
+        String accept;
+        try {
+            accept = Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-1").digest((key + GUID).getBytes(StandardCharsets.US_ASCII)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        c.out.write(("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\nSec-WebSocket-Accept: "
+                + accept + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        c.out.flush();
+        return Sessions.idOf(game);
+    }
+
+    private static String reject(Connection c, String status) throws IOException {
+        c.out.write(("HTTP/1.1 " + status + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        c.out.flush();
+        return null;
+    }
+
+    // The page is served from the HTTP port and the socket listens on another, so only the host names are compared.
+    private static boolean sameHost(String origin, String host) {
+        if (host == null) return false;
+        try {
+            String a = new URI(origin).getHost(), b = new URI("http://" + host).getHost();
+            return a != null && a.equalsIgnoreCase(b);
+        } catch (URISyntaxException e) {
+            return false;
+        }
+    }
+
+    private static String line(DataInputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int b; (b = in.read()) != '\n'; ) {
+            if (b < 0) throw new EOFException();
+            if (b != '\r') sb.append((char) b);
+            if (sb.length() > 8192) throw new IOException("Header line too long");
+        }
+        return sb.toString();
+    }
+
+    private void handle(Connection c, JsonUtil.Reader r) throws IOException {
+        int tx = r.tx;
+        AIPlayer ai = c.session.ai;
+        Game g = c.session.game;
+        JsonUtil.Writer w;
+        synchronized (ai) {
+            if (r.op("new") || r.op("state")) {
+                c.side = r.ai;
+                if (r.op("new")) {
+                    ai.resetGame();
+                    g.reset();
+                }
+                w = JsonUtil.writer().raw("{\"op\":\"state\",\"tx\":").num(tx).raw(",").game(g).raw("}");
+            } else if (!r.op("move")) {
+                w = error(tx, "Unknown op");
+            } else if (g.state.player == c.side) {
+                w = error(tx, "The AI is to move");
+            } else if (r.ply >= 0 && r.ply != g.ply) {
+                w = error(tx, "Game is at ply " + g.ply);
+            } else if (!g.play(ai, r.actionId)) {
+                w = error(tx, "Illegal action " + r.actionId);
+            } else {
+                w = JsonUtil.writer().raw("{\"op\":\"move\",\"tx\":").num(tx).raw(",").delta(g).raw("}");
+            }
+        }
+        c.send(w);
+        aiTurn(c, tx);
+    }
+
+    private static JsonUtil.Writer error(int tx, String msg) {
+        return JsonUtil.writer().raw("{\"op\":\"error\",\"tx\":").num(tx).raw(",\"error\":").str(msg).raw("}");
+    }
+
+    // Plays the AI's side of the game until the turn passes, on a search worker like /game/ai. A ponder hit
+    // starts the job with its result once the ponder search ends. Only a search of another channel makes it busy.
+    private void aiTurn(Connection c, int tx) {
+        AIPlayer ai = c.session.ai;
+        Game g = c.session.game;
+        GameState s;
+        int number, ply;
+        synchronized (ai) {
+            if (c.side == 0 || g.state.player != c.side || g.over()) return;
+            s = g.state.copy();
+            number = g.number;
+            ply = g.ply;
+        }
+        // A turn this connection is still ending (stopped by the newer tx) hands over to this one when it does.
+        boolean claimed;
+        synchronized (c.turns) {
+            if (c.turning) {
+                c.pending = true;
+                return;
+            }
+            claimed = c.turning = ai.searching.compareAndSet(false, true);
+        }
+        if (!claimed) {
+            c.tryError(tx, "Session busy: a search is already running");
+            return;
+        }
+        SearchExecutor searches = FanoronaServer.searches;
+        AIPlayer.StopFlag pondering = ai.promotePonder(s, FanoronaServer.Time_LIMIT, null, res -> {
+            if (res == null) {
+                if (c.tx == tx) c.tryError(tx, "AI Logic Error");
+                ended(c);
+            } else if (!searches.submit(job(c, turn(c, tx, number, ply, s, res)))) {
+                c.tryError(tx, "Server busy");
+                ended(c);
+            }
+        });
+        if (pondering != null) {
+            // As for a search of its own: a newer tx either shows here or finds the flag to stop.
+            c.search = pondering;
+            if (c.tx != tx) pondering.set = pondering.cancelled = true;
+        } else if (!searches.submit(job(c, turn(c, tx, number, ply, s, null)))) {
+            c.tryError(tx, "Server busy");
+            ended(c);
+        }
+    }
+
+    private SearchExecutor.Job job(Connection c, SearchExecutor.Job turn) {
+        return wait -> {
+            try {
+                turn.run(wait);
+            } finally {
+                ended(c);
+            }
+        };
+    }
+
+    // Lets go of the session's search, then plays a turn a newer message asked for while this one held it.
+    private void ended(Connection c) {
+        boolean again;
+        synchronized (c.turns) {
+            c.session.ai.searching.set(false);
+            c.turning = false;
+            again = c.pending;
+            c.pending = false;
+        }
+        if (again) aiTurn(c, c.tx);
+    }
+
+    private static SearchExecutor.Job turn(Connection c, int tx, int number, int ply, GameState s, AIPlayer.AIResult pondered) {
+        AIPlayer ai = c.session.ai;
+        Game g = c.session.game;
+        SearchExecutor searches = FanoronaServer.searches;
+        return wait -> {
+            try {
+                long budget = searches.budget(wait, FanoronaServer.Time_LIMIT);
+                if (pondered == null && budget < 0) {
+                    c.error(tx, "Search queue timeout");
+                    return;
+                }
+                AIPlayer.AIResult res = pondered;
+                GameState root = s;
+                for (int at = ply; ; at++) {
+                    JsonUtil.Writer w;
+                    boolean more;
+                    synchronized (ai) {
+                        if (c.tx != tx || g.number != number || g.ply != at) return;
+                        if (res == null) {
+                            AIPlayer.StopFlag flag = new AIPlayer.StopFlag(System.currentTimeMillis() + budget);
+                            c.search = flag;
+                            // Published before this check: a newer tx either shows here or finds the flag to stop.
+                            if (c.tx != tx) return;
+                            res = ai.think(root, flag, null);
+                            if (res == null || c.tx != tx) return;
+                        }
+                        if (!g.play(ai, res.bestMove)) return;
+                        w = JsonUtil.writer().raw("{\"op\":\"ai\",\"tx\":").num(tx).raw(",\"score\":").num(res.score)
+                                .raw(",\"strategy\":").str(res.strategy).raw(",\"pv\":").str(res.pv).raw(",").delta(g).raw("}");
+                        // Decided before letting go of the session: once the turn passes this job must end
+                        // without waiting for it again, or the ponder just queued behind it would never start.
+                        more = g.state.player == c.side && !g.over();
+                        root = g.state.copy();
+                    }
+                    c.send(w);
+                    if (!more) return;
+                    res = null;
+                    budget = FanoronaServer.Time_LIMIT;
+                }
+            } catch (IOException ignored) {
+                // The client went away; its socket thread cleans up.
+            } catch (Exception e) {
+                e.printStackTrace();
+                c.tryError(tx, "AI Logic Error");
+            }
+        };
+    }
+}
@@ -8,6 +8,13 @@ class GameState {
     long visitedMask = 0;
     int lastDir = -1;
     long zobristHash;
+    // Incremental material + PST of White (player 1) minus Black, per phase, kept by make() for the
+    // evaluator that attached itself to this line of play; null when nothing is tracked.
+    Evaluator eval;
+    int mg, eg;
+
+    // Longs written by save().
+    static final int UNDO = 6;
 
     public GameState copy() {
         GameState s = new GameState();
@@ -20,9 +27,37 @@ class GameState {
         s.visitedMask = visitedMask;
         s.lastDir = lastDir;
         s.zobristHash = zobristHash;
+        s.eval = eval;
+        s.mg = mg;
+        s.eg = eg;
         return s;
     }
 
+    // Snapshot for unmake: UNDO longs at buf[off..off+5].
+    void save(long[] buf, int off) {
+        buf[off] = myPieces;
+        buf[off + 1] = oppPieces;
+        buf[off + 2] = visitedMask;
+        buf[off + 3] = zobristHash;
+        buf[off + 4] = (player + 1) | (inCombo ? 4 : 0) | ((comboPiece + 1) << 3) | ((prevPos + 1) << 9) | ((lastDir + 1) << 15);
+        buf[off + 5] = ((long) mg << 32) | (eg & 0xFFFFFFFFL);
+    }
+
+    void restore(long[] buf, int off) {
+        myPieces = buf[off];
+        oppPieces = buf[off + 1];
+        visitedMask = buf[off + 2];
+        zobristHash = buf[off + 3];
+        int f = (int) buf[off + 4];
+        player = (f & 3) - 1;
+        inCombo = (f & 4) != 0;
+        comboPiece = ((f >>> 3) & 63) - 1;
+        prevPos = ((f >>> 9) & 63) - 1;
+        lastDir = ((f >>> 15) & 15) - 1;
+        mg = (int) (buf[off + 5] >> 32);
+        eg = (int) buf[off + 5];
+    }
+
     public void initHash() {
         this.zobristHash = Zobrist.compute(this);
     }
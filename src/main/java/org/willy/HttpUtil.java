@@ -3,33 +3,40 @@ package org.willy;
 import com.sun.net.httpserver.HttpExchange;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 
 public class HttpUtil {
-    static void serveFile(HttpExchange t, String resourcePath, String contentType) throws IOException {
-        try (InputStream is = FanoronaServer.class.getClassLoader().getResourceAsStream(resourcePath)) {
-            if (is == null) {
-                t.sendResponseHeaders(404, 0);
-                t.close();
-                return;
-            }
-            byte[] bytes = is.readAllBytes();
-            t.getResponseHeaders().set("Content-Type", contentType);
-            t.sendResponseHeaders(200, bytes.length);
-            try (OutputStream os = t.getResponseBody()) {
-                os.write(bytes);
-            }
-        }
+    static void sendJson(HttpExchange t, String j) throws IOException {
+        sendJson(t, 200, j);
     }
 
-    static void sendJson(HttpExchange t, String j) throws IOException {
+    static void sendJson(HttpExchange t, int code, String j) throws IOException {
         byte[] b = j.getBytes(StandardCharsets.UTF_8);
         t.getResponseHeaders().set("Content-Type", "application/json");
-        t.sendResponseHeaders(200, b.length);
+        t.sendResponseHeaders(code, b.length);
         try (OutputStream os = t.getResponseBody()) {
             os.write(b);
         }
     }
+
+    static void sendError(HttpExchange t, int code, String message) throws IOException {
+        sendJson(t, code, JsonUtil.writer().raw("{\"error\": ").str(message).raw("}").toString());
+    }
+
+    static void sendJson(HttpExchange t, JsonUtil.Writer w) throws IOException {
+        t.getResponseHeaders().set("Content-Type", "application/json");
+        t.sendResponseHeaders(200, w.length());
+        try (OutputStream os = t.getResponseBody()) {
+            w.writeTo(os);
+        }
+    }
+
+    // First value of a query parameter, or null.
+    static String query(HttpExchange t, String name) {
+        String q = t.getRequestURI().getRawQuery();
+        if (q == null) return null;
+        for (String p : q.split("&")) if (p.startsWith(name + "=")) return p.substring(name.length() + 1);
+        return null;
+    }
 }
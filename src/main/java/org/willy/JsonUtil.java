@@ -2,131 +2,485 @@ package org.willy;
 
 import com.sun.net.httpserver.HttpExchange;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
-import java.util.*;
+import java.util.Arrays;
 
+// Streaming JSON for the few shapes the server speaks. A Reader pulls one request object from the body stream
+// straight into primitive fields (board masks, player, combo state, action_id) and skips everything else; a Writer
+// appends a response to a byte buffer that is sent as is. Both are reused per thread, so a request costs no garbage.
 public class JsonUtil {
-    static String movesToJson(List<Move> l) {
-        StringBuilder b = new StringBuilder("[");
-        for (int i = 0; i < l.size(); i++) {
-            Move m = l.get(i);
-            b.append(String.format("{\"action_id\":%d,\"from\":%d,\"to\":%d,\"type\":\"%s\",\"victims\":%s}", m.actionId, m.from, m.to, m.type, listToJson(m.victims)));
-            if (i < l.size() - 1) b.append(",");
-        }
-        return b.append("]").toString();
+    private static final ThreadLocal<Reader> READER = ThreadLocal.withInitial(Reader::new);
+    private static final ThreadLocal<Writer> WRITER = ThreadLocal.withInitial(Writer::new);
+
+    static Reader read(HttpExchange t) throws IOException {
+        return read(t.getRequestBody());
     }
 
-    static String arrayToJson(int[] a) {
-        StringBuilder b = new StringBuilder("[");
-        for (int i = 0; i < a.length; i++) {
-            b.append(a[i]);
-            if (i < a.length - 1) b.append(",");
-        }
-        return b.append("]").toString();
+    static Reader read(InputStream in) throws IOException {
+        return READER.get().parse(in);
     }
 
-    static String listToJson(Collection<Integer> c) {
-        StringBuilder b = new StringBuilder("[");
-        int i = 0;
-        for (Integer v : c) {
-            b.append(v);
-            if (i++ < c.size() - 1) b.append(",");
+    static Reader parse(String json) {
+        try {
+            return read(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        return b.append("]").toString();
     }
 
-    static String getBody(HttpExchange t) throws IOException {
-        try (BufferedReader r = new BufferedReader(new InputStreamReader(t.getRequestBody(), StandardCharsets.UTF_8))) {
-            StringBuilder b = new StringBuilder();
-            String l;
-            while ((l = r.readLine()) != null) b.append(l);
-            return b.toString();
-        }
+    static Writer writer() {
+        return WRITER.get().reset();
     }
 
-    static class JsonObject {
-        Map<String, Object> m = new HashMap<>();
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
 
-        int getInt(String k) {
-            return ((Number) m.get(k)).intValue();
+    private static final byte[] BOARD = ascii("board"), PLAYER = ascii("player"), IN_COMBO = ascii("inCombo"),
+            COMBO_PIECE = ascii("comboPiece"), PREV_POS = ascii("prevPos"), VISITED = ascii("visited"),
+            ACTION_ID = ascii("action_id"), ID = ascii("id"), OP = ascii("op"), AI = ascii("ai"), TX = ascii("tx"),
+            PLY = ascii("ply");
+
+    static final class Reader {
+        private final byte[] buf = new byte[4096], key = new byte[16], op = new byte[16];
+        private InputStream in;
+        private int pos, lim, keyLen, opLen;
+        private long offset;
+        // The last object read. White is player 1; absent fields keep the defaults set by parse().
+        long white, black, visited;
+        int player, comboPiece, prevPos, actionId;
+        // GameSocket messages: the AI's side (0 for none) and the client's transaction number.
+        int ai, tx;
+        // The ply a server-side game move is meant for, -1 when not given.
+        int ply;
+        boolean inCombo, hasBoard, hasPlayer;
+        // "id" as its JSON text, echoed back by BatchAnalyzer.
+        String id;
+        private final GameState state = new GameState();
+
+        Reader parse(InputStream in) throws IOException {
+            this.in = in;
+            pos = lim = 0;
+            offset = 0;
+            white = black = visited = 0;
+            player = ai = tx = opLen = 0;
+            comboPiece = prevPos = actionId = ply = -1;
+            inCombo = hasBoard = hasPlayer = false;
+            id = null;
+            expect('{');
+            if (space() == '}') {
+                pos++;
+                return this;
+            }
+            do {
+                key();
+                expect(':');
+                if (is(BOARD)) board();
+                else if (is(PLAYER)) {
+                    player = integer();
+                    hasPlayer = true;
+                } else if (is(IN_COMBO)) inCombo = bool();
+                else if (is(COMBO_PIECE)) comboPiece = integerOrNull();
+                else if (is(PREV_POS)) prevPos = integerOrNull();
+                else if (is(VISITED)) visited = squares();
+                else if (is(ACTION_ID)) actionId = integer();
+                else if (is(ID)) id = token();
+                else if (is(OP)) {
+                    key();
+                    opLen = Math.min(keyLen, op.length);
+                    System.arraycopy(key, 0, op, 0, opLen);
+                } else if (is(AI)) ai = integer();
+                else if (is(TX)) tx = integer();
+                else if (is(PLY)) ply = integer();
+                else skip();
+            } while (more('}'));
+            return this;
         }
 
-        boolean getBoolean(String k) {
-            return (Boolean) m.get(k);
+        // The position just read, in a GameState owned by this reader: valid until the thread's next parse.
+        GameState state() {
+            return GameLogic.fromJson(this, state);
         }
 
-        int[] getIntArray(String k) {
-            List<?> l = (List<?>) m.get(k);
-            if (l == null) return new int[0];
-            int[] a = new int[l.size()];
-            for (int i = 0; i < l.size(); i++) {
-                a[i] = ((Number) l.get(i)).intValue();
+        // Whether "op" was name.
+        boolean op(String name) {
+            if (opLen != name.length()) return false;
+            for (int i = 0; i < opLen; i++) if (op[i] != name.charAt(i)) return false;
+            return true;
+        }
+
+        private int peek() throws IOException {
+            if (pos == lim) {
+                offset += lim;
+                pos = 0;
+                lim = Math.max(0, in.read(buf, 0, buf.length));
+                if (lim == 0) return -1;
             }
-            return a;
+            return buf[pos] & 0xFF;
         }
 
-        boolean has(String k) {
-            return m.containsKey(k);
+        private int next() throws IOException {
+            int c = peek();
+            if (c >= 0) pos++;
+            return c;
         }
 
-        boolean isNull(String k) {
-            return m.get(k) == null;
+        private int space() throws IOException {
+            int c;
+            while ((c = peek()) == ' ' || c == '\n' || c == '\r' || c == '\t') pos++;
+            return c;
         }
-    }
 
-    static class JsonParser {
-        static JsonObject parse(String j) {
-            JsonObject o = new JsonObject();
-            j = j.trim();
-            if (j.startsWith("{")) j = j.substring(1, j.length() - 1);
+        private void expect(int c) throws IOException {
+            if (space() != c) throw error();
+            pos++;
+        }
+
+        // After a member or element: true on ',', false on close.
+        private boolean more(int close) throws IOException {
+            int c = space();
+            pos++;
+            if (c == ',') return true;
+            if (c == close) return false;
+            throw error();
+        }
+
+        private void key() throws IOException {
+            expect('"');
+            keyLen = 0;
+            for (int c; (c = next()) != '"'; ) {
+                if (c < 0) throw error();
+                if (c == '\\') next();
+                if (keyLen < key.length) key[keyLen] = (byte) c;
+                keyLen++;
+            }
+        }
+
+        private boolean is(byte[] k) {
+            return keyLen == k.length && Arrays.equals(key, 0, keyLen, k, 0, k.length);
+        }
+
+        // A whole number in int range; a fraction, an exponent or anything larger is refused rather than rounded.
+        private int integer() throws IOException {
+            boolean neg = space() == '-';
+            if (neg) pos++;
+            int c = peek();
+            long v = 0;
+            if (c < '0' || c > '9') throw error();
+            if (c == '0') pos++;
+            else for (; c >= '0' && c <= '9'; c = peek()) {
+                v = v * 10 + (c - '0');
+                if (v > (neg ? -(long) Integer.MIN_VALUE : Integer.MAX_VALUE)) throw error();
+                pos++;
+            }
+            if ((c = peek()) == '.' || c == 'e' || c == 'E') throw error();
+            return (int) (neg ? -v : v);
+        }
+
+        // The optional fraction and exponent of a number, copied to b unless it is null.
+        private void tail(ByteArrayOutputStream b) throws IOException {
+            if (peek() == '.') {
+                take(b);
+                if (digits(b) == 0) throw error();
+            }
+            if (peek() == 'e' || peek() == 'E') {
+                take(b);
+                if (peek() == '+' || peek() == '-') take(b);
+                if (digits(b) == 0) throw error();
+            }
+        }
+
+        private int digits(ByteArrayOutputStream b) throws IOException {
+            int n = 0;
+            for (int c; (c = peek()) >= '0' && c <= '9'; n++) take(b);
+            return n;
+        }
+
+        private void take(ByteArrayOutputStream b) throws IOException {
+            int c = next();
+            if (b != null) b.write(c);
+        }
+
+        private int integerOrNull() throws IOException {
+            if (space() != 'n') return integer();
+            literal("null");
+            return -1;
+        }
+
+        private boolean bool() throws IOException {
+            boolean v = space() == 't';
+            literal(v ? "true" : "false");
+            return v;
+        }
+
+        private void literal(String word) throws IOException {
+            for (int i = 0; i < word.length(); i++) if (next() != word.charAt(i)) throw error();
+        }
+
+        private void board() throws IOException {
+            expect('[');
+            hasBoard = true;
+            if (space() == ']') {
+                pos++;
+                return;
+            }
             int i = 0;
-            while (i < j.length()) {
-                int col = j.indexOf(':', i);
-                if (col == -1) break;
-                String k = j.substring(i, col).trim().replace("\"", "");
-                i = col + 1;
-                while (i < j.length() && Character.isWhitespace(j.charAt(i))) i++;
-                char c = j.charAt(i);
-                if (c == '[') {
-                    int end = match(j, i, '[', ']');
-                    String as = j.substring(i + 1, end);
-                    List<Object> l = new ArrayList<>();
-                    if (!as.trim().isEmpty())
-                        for (String p : as.split(",")) if (!p.trim().isEmpty()) l.add(Double.parseDouble(p.trim()));
-                    o.m.put(k, l);
-                    i = end + 1;
-                } else if (c == 't') {
-                    o.m.put(k, true);
-                    i += 4;
-                } else if (c == 'f') {
-                    o.m.put(k, false);
-                    i += 5;
-                } else if (c == 'n') {
-                    o.m.put(k, null);
-                    i += 4;
+            do {
+                int v = integer();
+                if (i < GameLogic.NUM_POS) {
+                    if (v == 1) white |= 1L << i;
+                    else if (v == -1) black |= 1L << i;
+                }
+                i++;
+            } while (more(']'));
+        }
+
+        private long squares() throws IOException {
+            long m = 0;
+            if (space() == 'n') {
+                literal("null");
+                return m;
+            }
+            expect('[');
+            if (space() == ']') {
+                pos++;
+                return m;
+            }
+            do {
+                int v = integer();
+                if (v >= 0 && v < GameLogic.NUM_POS) m |= 1L << v;
+            } while (more(']'));
+            return m;
+        }
+
+        // A string (quotes included) or number as written, so it can be echoed into JSON; anything else is
+        // skipped and gives null. A number must follow the JSON grammar: -?(0|[1-9][0-9]*)(.[0-9]+)?([eE][+-]?[0-9]+)?
+        private String token() throws IOException {
+            int c = space();
+            if (c != '"' && c != '-' && (c < '0' || c > '9')) {
+                skip();
+                return null;
+            }
+            ByteArrayOutputStream b = new ByteArrayOutputStream();
+            if (c == '"') {
+                b.write(next());
+                for (int q; (q = next()) != '"'; ) {
+                    if (q < 0) throw error();
+                    b.write(q);
+                    if (q == '\\') b.write(next());
+                }
+                b.write('"');
+            } else {
+                if (c == '-') take(b);
+                if (peek() == '0') take(b);
+                else if (digits(b) == 0) throw error();
+                tail(b);
+            }
+            return b.toString(StandardCharsets.UTF_8);
+        }
+
+        private void skip() throws IOException {
+            int c = space();
+            if (c == '"') {
+                pos++;
+                skipString();
+            } else if (c == '{' || c == '[') {
+                pos++;
+                for (int depth = 1; depth > 0; ) {
+                    c = next();
+                    if (c < 0) throw error();
+                    if (c == '"') skipString();
+                    else if (c == '{' || c == '[') depth++;
+                    else if (c == '}' || c == ']') depth--;
+                }
+            } else {
+                int n = 0;
+                while ((c = peek()) >= 0 && c != ',' && c != '}' && c != ']' && c > ' ') {
+                    pos++;
+                    n++;
+                }
+                if (n == 0) throw error();
+            }
+        }
+
+        private void skipString() throws IOException {
+            for (int c; (c = next()) != '"'; ) {
+                if (c < 0) throw error();
+                if (c == '\\') next();
+            }
+        }
+
+        private IllegalArgumentException error() {
+            return new IllegalArgumentException("Malformed JSON at byte " + (offset + pos));
+        }
+    }
+
+    static final class Writer {
+        private byte[] buf = new byte[2048];
+        private int len;
+        private final int[] actions = new int[GameLogic.MAX_MOVES];
+        private final long[] victims = new long[GameLogic.MAX_MOVES];
+
+        Writer reset() {
+            len = 0;
+            return this;
+        }
+
+        private void room(int n) {
+            if (len + n > buf.length) buf = Arrays.copyOf(buf, Math.max(2 * buf.length, len + n));
+        }
+
+        // ASCII only: keys, punctuation and literals.
+        Writer raw(String s) {
+            room(s.length());
+            for (int i = 0; i < s.length(); i++) buf[len++] = (byte) s.charAt(i);
+            return this;
+        }
+
+        private Writer raw(char c) {
+            room(1);
+            buf[len++] = (byte) c;
+            return this;
+        }
+
+        Writer num(long v) {
+            room(20);
+            if (v < 0) {
+                buf[len++] = '-';
+                if (v == Long.MIN_VALUE) return raw("9223372036854775808");
+                v = -v;
+            }
+            int start = len;
+            do {
+                buf[len++] = (byte) ('0' + v % 10);
+                v /= 10;
+            } while (v != 0);
+            for (int i = start, j = len - 1; i < j; i++, j--) {
+                byte t = buf[i];
+                buf[i] = buf[j];
+                buf[j] = t;
+            }
+            return this;
+        }
+
+        Writer bool(boolean b) {
+            return raw(b ? "true" : "false");
+        }
+
+        // A quoted, escaped string, UTF-8 encoded.
+        Writer str(String s) {
+            room(6 * s.length() + 2);
+            buf[len++] = '"';
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c == '"' || c == '\\') {
+                    buf[len++] = '\\';
+                    buf[len++] = (byte) c;
+                } else if (c < ' ') {
+                    raw("\\u00").raw(Character.forDigit(c >> 4, 16)).raw(Character.forDigit(c & 15, 16));
+                } else if (c < 0x80) {
+                    buf[len++] = (byte) c;
+                } else if (c < 0x800) {
+                    buf[len++] = (byte) (0xC0 | c >> 6);
+                    buf[len++] = (byte) (0x80 | c & 0x3F);
+                } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    buf[len++] = (byte) (0xF0 | cp >> 18);
+                    buf[len++] = (byte) (0x80 | cp >> 12 & 0x3F);
+                    buf[len++] = (byte) (0x80 | cp >> 6 & 0x3F);
+                    buf[len++] = (byte) (0x80 | cp & 0x3F);
                 } else {
-                    int com = j.indexOf(',', i);
-                    if (com == -1) com = j.length();
-                    String v = j.substring(i, com).trim();
-                    if (v.startsWith("\"")) o.m.put(k, v.replace("\"", ""));
-                    else o.m.put(k, Double.parseDouble(v));
-                    i = com;
+                    buf[len++] = (byte) (0xE0 | c >> 12);
+                    buf[len++] = (byte) (0x80 | c >> 6 & 0x3F);
+                    buf[len++] = (byte) (0x80 | c & 0x3F);
                 }
-                while (i < j.length() && (j.charAt(i) == ',' || Character.isWhitespace(j.charAt(i)))) i++;
             }
-            return o;
+            buf[len++] = '"';
+            return this;
         }
 
-        static int match(String s, int st, char op, char cl) {
-            int d = 0;
-            for (int i = st; i < s.length(); i++) {
-                if (s.charAt(i) == op) d++;
-                if (s.charAt(i) == cl && --d == 0) return i;
+        // The 45 cells as the client stores them: player number or 0.
+        Writer board(GameState s) {
+            raw('[');
+            for (int i = 0; i < GameLogic.NUM_POS; i++) {
+                if (i > 0) raw(',');
+                num((s.myPieces >>> i & 1) != 0 ? s.player : (s.oppPieces >>> i & 1) != 0 ? -s.player : 0);
             }
-            return -1;
+            return raw(']');
+        }
+
+        // The position members, as the client sends them back.
+        Writer position(GameState s) {
+            return raw("\"board\":").board(s).raw(",\"player\":").num(s.player).raw(",\"inCombo\":").bool(s.inCombo)
+                    .raw(",\"comboPiece\":").num(s.comboPiece).raw(",\"prevPos\":").num(s.prevPos)
+                    .raw(",\"visited\":").squares(s.visitedMask, false);
+        }
+
+        // Square indices of a mask, ascending, or descending when down is set.
+        Writer squares(long mask, boolean down) {
+            raw('[');
+            for (long t = mask; t != 0; ) {
+                int sq;
+                if (down) {
+                    sq = 63 - Long.numberOfLeadingZeros(t);
+                    t &= ~(1L << sq);
+                } else {
+                    sq = Long.numberOfTrailingZeros(t);
+                    t &= t - 1;
+                }
+                num(sq);
+                if (t != 0) raw(',');
+            }
+            return raw(']');
+        }
+
+        // The legal moves of s in getDetailedMoves order and shape, victims nearest first.
+        Writer moves(GameState s) {
+            int n = GameLogic.generate(s, actions, victims);
+            raw('[');
+            for (int i = 0; i < n; i++) {
+                int a = actions[i];
+                if (i > 0) raw(',');
+                raw("{\"action_id\":").num(a).raw(",\"from\":").num(GameLogic.from(a)).raw(",\"to\":").num(GameLogic.to(a));
+                raw(",\"type\":\"").raw(a >= 720 ? "stop" : a >= 360 ? "withdrawal" : victims[i] != 0 ? "approach" : "move");
+                raw("\",\"victims\":").squares(victims[i], a < 720 && GameLogic.victimsDescend(a)).raw('}');
+            }
+            return raw(']');
+        }
+
+        // A server-side game in full, for a new game or a client catching up: ply, position, win and moves.
+        Writer game(Game g) {
+            raw("\"ply\":").num(g.ply).raw(',').position(g.state).raw(",\"win\":").bool(g.win).raw(",\"moves\":");
+            return g.win ? raw("[]") : moves(g.state);
+        }
+
+        // What the last action of g changed: the move and its victims nearest first, whose turn it is now, and the new moves.
+        Writer delta(Game g) {
+            int a = g.action;
+            raw("\"ply\":").num(g.ply).raw(",\"action_id\":").num(a).raw(",\"from\":").num(GameLogic.from(a)).raw(",\"to\":").num(GameLogic.to(a));
+            raw(",\"victims\":").squares(g.victims, a < 720 && GameLogic.victimsDescend(a));
+            raw(",\"player\":").num(g.state.player).raw(",\"inCombo\":").bool(g.state.inCombo).raw(",\"comboPiece\":").num(g.state.comboPiece);
+            raw(",\"win\":").bool(g.win).raw(",\"moves\":");
+            return g.win ? raw("[]") : moves(g.state);
+        }
+
+        int length() {
+            return len;
+        }
+
+        void writeTo(OutputStream os) throws IOException {
+            os.write(buf, 0, len);
+        }
+
+        @Override
+        public String toString() {
+            return new String(buf, 0, len, StandardCharsets.UTF_8);
         }
     }
 }
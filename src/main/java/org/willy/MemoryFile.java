@@ -0,0 +1,272 @@
+package org.willy;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+// On-disk image of the transposition table plus the seed history.
+// Layout (little-endian): 64-byte header, the raw slot array, then 46*46 history ints.
+// Header: "FNRM", version, bucket longs, age, slot longs, generation, history ints, reserved,
+// CRC32 of slots, CRC32 of history, CRC32 of the preceding header bytes.
+// Between snapshots, changed buckets go to an append-only delta log <name>.log tied to the snapshot's
+// generation: a 32-byte header ("FNRD", version, generation, slot longs, header CRC) and then batches.
+// A batch is a run of records (bucket index + 8 slot longs, or HISTORY_RECORD + the history ints)
+// closed by END, the record count and the CRC32 of the records.
+class MemoryFile {
+    static final int VERSION = 2;
+    static final int HEADER = 64;
+    static final int LOG_HEADER = 32;
+    private static final int MAGIC = 'F' | 'N' << 8 | 'R' << 16 | 'M' << 24;
+    private static final int LOG_MAGIC = 'F' | 'N' << 8 | 'R' << 16 | 'D' << 24;
+    private static final int END = -1, HISTORY_RECORD = -2;
+    private static final int BUCKET_RECORD_BYTES = 4 + 64, HISTORY_RECORD_BYTES = 4 + 46 * 46 * 4;
+    private static final int HISTORY = 46 * 46;
+    private static final int CHUNK_LONGS = 1 << 17;
+
+    static class FormatException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        FormatException(String msg) {
+            super(msg);
+        }
+    }
+
+    // Returns the generation of the loaded image. The slot array is read chunk by chunk, once for the checksum
+    // and once to copy it in when the geometry matches; otherwise the entries are re-stored into the table.
+    // Nothing is mapped: a mapping outlives the channel until it is collected, and on Windows an open mapping
+    // keeps save, startLog and the quarantine from replacing or renaming the file.
+    static long load(TranspositionTable tt, int[][] history, Path p) throws IOException {
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size < HEADER) throw new FormatException("truncated header");
+            ByteBuffer h = read(ch, ByteBuffer.allocate(HEADER), 0, HEADER);
+            if (h.getInt(0) != MAGIC) throw new FormatException("not a versioned memory file");
+            if (h.getInt(4) != VERSION) throw new FormatException("unsupported version " + h.getInt(4));
+            if (h.getLong(56) != crc(h, 0, 56)) throw new FormatException("header checksum mismatch");
+            int age = h.getInt(12);
+            long slotLongs = h.getLong(16);
+            long generation = h.getLong(24);
+            if (h.getInt(8) != 8 || h.getInt(32) != HISTORY || slotLongs < 0 || slotLongs > Integer.MAX_VALUE
+                    || size != HEADER + slotLongs * 8 + HISTORY * 4L) throw new FormatException("bad geometry");
+
+            long histOff = HEADER + slotLongs * 8;
+            ByteBuffer hist = read(ch, ByteBuffer.allocate(HISTORY * 4), histOff, HISTORY * 4);
+            if (h.getLong(48) != crc(hist, 0, HISTORY * 4)) throw new FormatException("history checksum mismatch");
+            ByteBuffer buf = ByteBuffer.allocateDirect(CHUNK_LONGS * 8);
+            CRC32 slotCrc = new CRC32();
+            for (long off = 0; off < slotLongs; off += CHUNK_LONGS) {
+                slotCrc.update(read(ch, buf, HEADER + off * 8, (int) Math.min(CHUNK_LONGS, slotLongs - off) * 8));
+            }
+            if (h.getLong(40) != slotCrc.getValue()) throw new FormatException("slot checksum mismatch");
+
+            boolean same = slotLongs == tt.length();
+            if (!same) tt.clear();
+            for (long off = 0; off < slotLongs; off += CHUNK_LONGS) {
+                int len = (int) Math.min(CHUNK_LONGS, slotLongs - off);
+                LongBuffer slots = read(ch, buf, HEADER + off * 8, len * 8).asLongBuffer();
+                if (same) tt.copyIn((int) off, slots);
+                else for (int i = 0; i < len; i += 2) {
+                    long data = slots.get(i + 1);
+                    if (data == 0) continue;
+                    tt.store(slots.get(i) ^ data, TranspositionTable.depth(data), TranspositionTable.score(data),
+                            TranspositionTable.flag(data), TranspositionTable.move(data));
+                }
+            }
+            if (same) tt.restored(age);
+            for (int r = 0; r < 46; r++) for (int c = 0; c < 46; c++) history[r][c] = hist.getInt((r * 46 + c) * 4);
+            return generation;
+        }
+    }
+
+    // Fills buf[0..len) from the file at off; the size was checked, so a short read means it changed meanwhile.
+    private static ByteBuffer read(FileChannel ch, ByteBuffer buf, long off, int len) throws IOException {
+        buf.clear().limit(len);
+        while (buf.hasRemaining()) if (ch.read(buf, off + buf.position()) < 0) throw new FormatException("truncated file");
+        return buf.flip().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    // Writes to a sibling temp file and renames it over p, so a crash never leaves a half-written image.
+    // Slots are streamed from the live table in chunks; searches keep running while it copies.
+    static void save(TranspositionTable tt, int[][] history, long generation, Path p) throws IOException {
+        Path tmp = p.resolveSibling(p.getFileName() + ".tmp");
+        int n = tt.length();
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ch.position(HEADER);
+            ByteBuffer buf = ByteBuffer.allocateDirect(CHUNK_LONGS * 8).order(ByteOrder.LITTLE_ENDIAN);
+            CRC32 slotCrc = new CRC32();
+            for (int off = 0; off < n; off += CHUNK_LONGS) {
+                int len = Math.min(CHUNK_LONGS, n - off);
+                buf.clear();
+                tt.copyOut(off, buf.asLongBuffer(), len);
+                buf.limit(len * 8);
+                slotCrc.update(buf.duplicate());
+                while (buf.hasRemaining()) ch.write(buf);
+            }
+
+            ByteBuffer hist = ByteBuffer.allocate(HISTORY * 4).order(ByteOrder.LITTLE_ENDIAN);
+            for (int[] row : history) for (int v : row) hist.putInt(v);
+            hist.flip();
+            CRC32 histCrc = new CRC32();
+            histCrc.update(hist.duplicate());
+            while (hist.hasRemaining()) ch.write(hist);
+
+            ByteBuffer h = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+            h.putInt(MAGIC).putInt(VERSION).putInt(8).putInt(tt.age()).putLong(n).putLong(generation)
+                    .putInt(HISTORY).putInt(0).putLong(slotCrc.getValue()).putLong(histCrc.getValue());
+            h.putLong(crc(h, 0, 56));
+            h.flip();
+            ch.position(0);
+            while (h.hasRemaining()) ch.write(h);
+            ch.force(true);
+        }
+        Files.move(tmp, p, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static Path logPath(Path p) {
+        return p.resolveSibling(p.getFileName() + ".log");
+    }
+
+    // Replaces the log with an empty one for the given snapshot generation.
+    static void startLog(long generation, int slotLongs, Path log) throws IOException {
+        Path tmp = log.resolveSibling(log.getFileName() + ".tmp");
+        ByteBuffer h = ByteBuffer.allocate(LOG_HEADER).order(ByteOrder.LITTLE_ENDIAN);
+        h.putInt(LOG_MAGIC).putInt(VERSION).putLong(generation).putLong(slotLongs);
+        h.putLong(crc(h, 0, 24));
+        h.flip();
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (h.hasRemaining()) ch.write(h);
+            ch.force(true);
+        }
+        Files.move(tmp, log, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Appends one batch with every bucket stored to since the last drain, plus the history when it is
+    // non-null. Returns the number of buckets written.
+    static int appendDelta(TranspositionTable tt, int[][] history, Path log) throws IOException {
+        try (FileChannel ch = FileChannel.open(log, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            BatchWriter w = new BatchWriter(ch);
+            if (history != null) {
+                w.room(HISTORY_RECORD_BYTES);
+                w.buf.putInt(HISTORY_RECORD);
+                for (int[] row : history) for (int v : row) w.buf.putInt(v);
+                w.records++;
+            }
+            int n;
+            try {
+                n = tt.drainDirty(w);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            w.flush();
+            w.buf.putInt(END).putInt(w.records).putLong(w.crc.getValue());
+            w.buf.flip();
+            while (w.buf.hasRemaining()) ch.write(w.buf);
+            ch.force(false);
+            return n;
+        }
+    }
+
+    private static class BatchWriter implements TranspositionTable.BucketSink {
+        final FileChannel ch;
+        final ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+        final CRC32 crc = new CRC32();
+        int records;
+
+        BatchWriter(FileChannel ch) {
+            this.ch = ch;
+        }
+
+        public void bucket(int index, long[] slots, int off) {
+            try {
+                room(BUCKET_RECORD_BYTES);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            buf.putInt(index);
+            for (int i = 0; i < 8; i++) buf.putLong(slots[off + i]);
+            records++;
+        }
+
+        void room(int bytes) throws IOException {
+            if (buf.remaining() < bytes) flush();
+        }
+
+        void flush() throws IOException {
+            buf.flip();
+            crc.update(buf.duplicate());
+            while (buf.hasRemaining()) ch.write(buf);
+            buf.clear();
+        }
+    }
+
+    // Applies the log's complete batches on top of a snapshot of the given generation. Returns the
+    // length of the valid prefix, or -1 when the log belongs to another snapshot or is unreadable.
+    // A torn tail from a crash is left in place; the caller compacts instead of appending after it.
+    static long replay(TranspositionTable tt, int[][] history, long generation, Path log) throws IOException {
+        if (!Files.exists(log)) return -1;
+        try (FileChannel ch = FileChannel.open(log, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size < LOG_HEADER || size > Integer.MAX_VALUE) return -1;
+            ByteBuffer b = read(ch, ByteBuffer.allocate((int) size), 0, (int) size);
+            if (b.getInt(0) != LOG_MAGIC || b.getInt(4) != VERSION || b.getLong(24) != crc(b, 0, 24)) return -1;
+            if (b.getLong(8) != generation) return -1;
+            boolean same = b.getLong(16) == tt.length();
+            int pos = LOG_HEADER;
+            for (int end; (end = scan(b, pos)) > 0; pos = end) apply(b, pos, tt, history, same);
+            if (same) tt.restored(tt.age());
+            return pos;
+        }
+    }
+
+    // Returns the position after the batch starting at pos, or -1 when it is incomplete or corrupt.
+    private static int scan(ByteBuffer b, int pos) {
+        int start = pos, records = 0;
+        while (pos + 4 <= b.limit()) {
+            int tag = b.getInt(pos);
+            if (tag == END) {
+                if (pos + 16 > b.limit()) return -1;
+                boolean ok = b.getInt(pos + 4) == records && b.getLong(pos + 8) == crc(b, start, pos - start);
+                return ok ? pos + 16 : -1;
+            }
+            if (tag == HISTORY_RECORD) pos += HISTORY_RECORD_BYTES;
+            else if (tag >= 0) pos += BUCKET_RECORD_BYTES;
+            else return -1;
+            records++;
+        }
+        return -1;
+    }
+
+    private static void apply(ByteBuffer b, int pos, TranspositionTable tt, int[][] history, boolean same) {
+        for (int tag; (tag = b.getInt(pos)) != END; ) {
+            pos += 4;
+            if (tag == HISTORY_RECORD) {
+                for (int r = 0; r < 46; r++) for (int c = 0; c < 46; c++, pos += 4) history[r][c] = b.getInt(pos);
+                continue;
+            }
+            LongBuffer bucket = b.slice(pos, 64).order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+            pos += 64;
+            if (same) {
+                if (tag < tt.buckets()) tt.copyBucketIn(tag, bucket);
+            } else for (int i = 0; i < 8; i += 2) {
+                long data = bucket.get(i + 1);
+                if (data == 0) continue;
+                tt.store(bucket.get(i) ^ data, TranspositionTable.depth(data), TranspositionTable.score(data),
+                        TranspositionTable.flag(data), TranspositionTable.move(data));
+            }
+        }
+    }
+
+    static long crc(ByteBuffer b, int off, int len) {
+        CRC32 crc = new CRC32();
+        crc.update(b.slice(off, len));
+        return crc.getValue();
+    }
+}
@@ -1,33 +1,35 @@
 package org.willy;
 
 import com.sun.net.httpserver.HttpExchange;
-import com.sun.net.httpserver.HttpHandler;
 
 import java.io.IOException;
-import java.util.HashSet;
-import java.util.Set;
 
-class MoveHandler implements HttpHandler {
-    public void handle(HttpExchange ex) throws IOException {
-        String b = JsonUtil.getBody(ex);
-        GameState s = GameLogic.fromJson(JsonUtil.JsonParser.parse(b));
-        int aid = JsonUtil.JsonParser.parse(b).getInt("action_id");
-        FanoronaServer.aiPlayer.analyzeHumanMove(aid);
-        FanoronaServer.aiPlayer.recordState(s.zobristHash);
-        GameLogic.StepResult res = GameLogic.step(s, aid);
-        FanoronaServer.aiPlayer.recordState(res.state.zobristHash);
-        int[] out = new int[GameLogic.NUM_POS];
-        long my = res.state.myPieces, op = res.state.oppPieces;
-        for (int i = 0; i < GameLogic.NUM_POS; i++) {
-            if ((my & (1L << i)) != 0) out[i] = res.state.player;
-            else if ((op & (1L << i)) != 0) out[i] = -res.state.player;
+class MoveHandler implements Sessions.SessionHandler {
+    public void handle(HttpExchange ex, AIPlayer ai) throws IOException {
+        GameState s;
+        int aid;
+        if (Wire.sent(ex)) {
+            Wire w = Wire.read(ex);
+            s = w.state;
+            aid = w.actionId;
+        } else {
+            JsonUtil.Reader r = JsonUtil.read(ex);
+            s = r.state();
+            aid = r.actionId;
         }
-        Set<Integer> v = new HashSet<>();
-        long vm = res.state.visitedMask;
-        while (vm != 0) {
-            v.add(Long.numberOfTrailingZeros(vm));
-            vm &= (vm - 1);
-        }
-        HttpUtil.sendJson(ex, String.format("{\"board\":%s,\"player\":%d,\"inCombo\":%b,\"comboPiece\":%d,\"prevPos\":%d,\"win\":%b,\"visited\":%s}", JsonUtil.arrayToJson(out), res.state.player, res.state.inCombo, res.state.comboPiece, res.state.prevPos, res.win, JsonUtil.listToJson(v)));
+        if (!GameLogic.legal(s, aid)) throw new IllegalArgumentException("Illegal action " + aid);
+        // The parsed state is this thread's scratch copy, so the move is made on it in place.
+        boolean win = apply(ai, s, aid);
+        if (Wire.wanted(ex)) Wire.writer().position(s).u8(win ? 1 : 0).send(ex);
+        else HttpUtil.sendJson(ex, JsonUtil.writer().raw("{").position(s).raw(",\"win\":").bool(win).raw("}"));
+    }
+
+    // Plays aid on s in place, with the session bookkeeping every move (human or AI) gets. True if it wins.
+    static boolean apply(AIPlayer ai, GameState s, int aid) {
+        ai.analyzeHumanMove(aid);
+        ai.recordState(s.zobristHash);
+        boolean win = GameLogic.make(s, aid, GameLogic.victimsOf(s, aid));
+        ai.recordState(s.zobristHash);
+        return win;
     }
 }
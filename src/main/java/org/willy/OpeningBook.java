@@ -0,0 +1,86 @@
+package org.willy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// Precomputed moves keyed by Zobrist hash, sorted so a lookup is one binary search.
+// File (little-endian): "FNRB", version, entry count, search depth, then 16-byte entries of
+// key (long), score (int), action id (short), depth (short).
+class OpeningBook {
+    private static final int MAGIC = 'F' | 'N' << 8 | 'R' << 16 | 'B' << 24;
+    private static final int VERSION = 1, HEADER = 16, ENTRY = 16;
+
+    private final long[] keys;
+    private final int[] scores;
+    private final short[] moves, depths;
+
+    private OpeningBook(long[] keys, int[] scores, short[] moves, short[] depths) {
+        this.keys = keys;
+        this.scores = scores;
+        this.moves = moves;
+        this.depths = depths;
+    }
+
+    static OpeningBook load(Path p) throws IOException {
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size < HEADER || size > Integer.MAX_VALUE) throw new IOException("bad book size");
+            ByteBuffer b = ch.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+            if (b.getInt(0) != MAGIC || b.getInt(4) != VERSION) throw new IOException("not a version " + VERSION + " book");
+            int n = b.getInt(8);
+            if (n < 0 || size != HEADER + (long) n * ENTRY) throw new IOException("bad book size");
+            long[] keys = new long[n];
+            int[] scores = new int[n];
+            short[] moves = new short[n], depths = new short[n];
+            for (int i = 0, off = HEADER; i < n; i++, off += ENTRY) {
+                keys[i] = b.getLong(off);
+                scores[i] = b.getInt(off + 8);
+                moves[i] = b.getShort(off + 12);
+                depths[i] = b.getShort(off + 14);
+                if (i > 0 && keys[i] <= keys[i - 1]) throw new IOException("book is not sorted");
+            }
+            return new OpeningBook(keys, scores, moves, depths);
+        }
+    }
+
+    // Entry index for key, or -1.
+    int find(long key) {
+        int i = Arrays.binarySearch(keys, key);
+        return i >= 0 ? i : -1;
+    }
+
+    int move(int i) {
+        return moves[i];
+    }
+
+    int score(int i) {
+        return scores[i];
+    }
+
+    int depth(int i) {
+        return depths[i];
+    }
+
+    int size() {
+        return keys.length;
+    }
+
+    // entries holds {key, score, move, depth} rows; they are sorted by key here.
+    static void write(Path p, long[][] entries, int depth) throws IOException {
+        long[][] sorted = entries.clone();
+        Arrays.sort(sorted, (x, y) -> Long.compare(x[0], y[0]));
+        ByteBuffer b = ByteBuffer.allocate(HEADER + sorted.length * ENTRY).order(ByteOrder.LITTLE_ENDIAN);
+        b.putInt(MAGIC).putInt(VERSION).putInt(sorted.length).putInt(depth);
+        for (long[] e : sorted) b.putLong(e[0]).putInt((int) e[1]).putShort((short) e[2]).putShort((short) e[3]);
+        Path tmp = p.resolveSibling(p.getFileName() + ".tmp");
+        Files.write(tmp, b.array());
+        Files.move(tmp, p, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,276 @@
+package org.willy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// Leaf-node counts to a fixed number of actions. Every action is one ply, so capture-chain steps
+// and the 720 stop each count; a capture that empties the board ends that branch.
+// Usage: java -cp fanorona.jar org.willy.Perft --depth=N [--threads=N] [--hash=MB] [--divide] [--verify] [--position=json]
+class Perft {
+    private final long[] cache;
+    private final int cacheMask;
+
+    Perft(int hashMb) {
+        if (hashMb <= 0) {
+            cache = null;
+            cacheMask = 0;
+        } else {
+            int entries = Integer.highestOneBit((int) Math.min(1 << 30, hashMb * 1024L * 1024 / 16));
+            cache = new long[entries * 2];
+            cacheMask = entries - 1;
+        }
+    }
+
+    long perft(GameState root, int depth) {
+        int[][] moves = new int[depth + 1][GameLogic.MAX_MOVES];
+        long[][] victims = new long[depth + 1][GameLogic.MAX_MOVES];
+        return count(root.copy(), depth, moves, victims, new long[GameState.UNDO * (depth + 1)]);
+    }
+
+    private long count(GameState s, int depth, int[][] moves, long[][] victims, long[] undo) {
+        if (depth == 0) return 1;
+        if (s.oppPieces == 0) return 0;
+        long key = s.zobristHash ^ depth * 0x9E3779B97F4A7C15L;
+        if (cache != null) {
+            int i = ((int) key & cacheMask) * 2;
+            // Counts never reach 2^63, so a stored (key ^ n, n) pair is self-validating without locks.
+            long n = cache[i + 1];
+            if (n != 0 && (cache[i] ^ n) == key) return n;
+        }
+        int[] ms = moves[depth];
+        long[] vs = victims[depth];
+        int n = GameLogic.generate(s, ms, vs);
+        long total;
+        if (depth == 1) total = n;
+        else {
+            total = 0;
+            for (int i = 0; i < n; i++) {
+                s.save(undo, depth * GameState.UNDO);
+                GameLogic.make(s, ms[i], vs[i]);
+                total += count(s, depth - 1, moves, victims, undo);
+                s.restore(undo, depth * GameState.UNDO);
+            }
+        }
+        if (cache != null && total != 0) {
+            int i = ((int) key & cacheMask) * 2;
+            cache[i] = key ^ total;
+            cache[i + 1] = total;
+        }
+        return total;
+    }
+
+    // Per-root-move counts, one fork-join task per root move.
+    long[] divide(GameState root, int depth, ForkJoinPool pool) {
+        int[] ms = new int[GameLogic.MAX_MOVES];
+        long[] vs = new long[GameLogic.MAX_MOVES];
+        int n = GameLogic.generate(root, ms, vs);
+        List<RecursiveTask<Long>> tasks = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            GameState child = root.copy();
+            GameLogic.make(child, ms[i], vs[i]);
+            tasks.add(new RecursiveTask<>() {
+                protected Long compute() {
+                    return perft(child, depth - 1);
+                }
+            });
+        }
+        return pool.submit(() -> {
+            for (RecursiveTask<Long> t : tasks) t.fork();
+            long[] out = new long[n];
+            for (int i = 0; i < n; i++) out[i] = tasks.get(i).join();
+            return out;
+        }).join();
+    }
+
+    // Walks the tree with the bitboard generator and Ref, and reports the first node where they disagree
+    // on the moves, their victims, the position a move leads to or the incremental hash.
+    static String verify(GameState root, int depth) {
+        int[] ms = new int[GameLogic.MAX_MOVES];
+        long[] vs = new long[GameLogic.MAX_MOVES];
+        return verify(root, depth, ms, vs, "");
+    }
+
+    private static String verify(GameState s, int depth, int[] ms, long[] vs, String path) {
+        if (depth == 0 || s.oppPieces == 0) return null;
+        Ref ref = new Ref(s);
+        List<long[]> expected = ref.moves();
+        int n = GameLogic.generate(s, ms, vs);
+        if (n != expected.size()) return path + ": " + expected.size() + " reference moves vs " + n;
+        int[] acts = Arrays.copyOf(ms, n);
+        long[] vics = Arrays.copyOf(vs, n);
+        for (int i = 0; i < n; i++) {
+            long[] m = expected.get(i);
+            if (m[0] != acts[i] || m[1] != vics[i]) return path + ": move " + i + " is " + m[0] + " vs " + acts[i];
+            String at = path + " " + GameLogic.describe(acts[i]);
+            Ref next = ref.copy();
+            boolean win = next.play(acts[i], vics[i]);
+            GameState child = s.copy();
+            if (GameLogic.make(child, acts[i], vics[i]) != win || !next.matches(child)) return at + ": resulting position differs";
+            if (child.zobristHash != Zobrist.compute(child)) return at + ": incremental hash mismatch";
+            String err = win ? null : verify(child, depth - 1, ms, vs, at);
+            if (err != null) return err;
+        }
+        return null;
+    }
+
+    // The rules walked one square at a time on a plain array, sharing nothing with GameLogic but the
+    // action numbering (from * 8 + direction, +360 for withdrawal, 720 to stop), so a table or shift
+    // bug in the bitboard generator cannot hide in both. Cells are 1 for the side to move, -1 for the other.
+    private static final class Ref {
+        private static final int[] DR = {-1, -1, 0, 1, 1, 1, 0, -1}, DC = {0, 1, 1, 1, 0, -1, -1, -1};
+        int[] cell = new int[45];
+        int player, piece = -1, lastDir = -1;
+        boolean inCombo;
+        boolean[] visited = new boolean[45];
+
+        Ref(GameState s) {
+            for (int i = 0; i < 45; i++) cell[i] = (s.myPieces >>> i & 1) != 0 ? 1 : (s.oppPieces >>> i & 1) != 0 ? -1 : 0;
+            for (int i = 0; i < 45; i++) visited[i] = (s.visitedMask >>> i & 1) != 0;
+            player = s.player;
+            inCombo = s.inCombo;
+            piece = s.comboPiece;
+            lastDir = s.lastDir;
+        }
+
+        private Ref() {
+        }
+
+        Ref copy() {
+            Ref r = new Ref();
+            r.cell = cell.clone();
+            r.visited = visited.clone();
+            r.player = player;
+            r.piece = piece;
+            r.lastDir = lastDir;
+            r.inCombo = inCombo;
+            return r;
+        }
+
+        // The square one step from sq in direction d, or -1. Only squares with r + c even have diagonals.
+        static int step(int sq, int d) {
+            int r = sq / 9, c = sq % 9;
+            if ((r + c) % 2 != 0 && d % 2 != 0) return -1;
+            r += DR[d];
+            c += DC[d];
+            return r < 0 || r > 4 || c < 0 || c > 8 ? -1 : r * 9 + c;
+        }
+
+        // Opponent pieces in an unbroken line from sq onwards in direction d.
+        long line(int sq, int d) {
+            long v = 0;
+            for (; sq != -1 && cell[sq] == -1; sq = step(sq, d)) v |= 1L << sq;
+            return v;
+        }
+
+        // {action, victims} in the order the generator emits them.
+        List<long[]> moves() {
+            List<long[]> out = new ArrayList<>();
+            boolean captures = false;
+            for (int p = 0; p < 45; p++) {
+                if (cell[p] != 1 || inCombo && p != piece) continue;
+                for (int d = 0; d < 8; d++) {
+                    int t = step(p, d);
+                    if (t == -1 || cell[t] != 0 || inCombo && (d == lastDir || visited[t])) continue;
+                    int back = step(p, (d + 4) % 8);
+                    long av = line(step(t, d), d), wv = back == -1 ? 0 : line(back, (d + 4) % 8);
+                    if (av != 0) out.add(new long[]{p * 8 + d, av});
+                    if (wv != 0) out.add(new long[]{p * 8 + d + 360, wv});
+                    if (av == 0 && wv == 0) out.add(new long[]{p * 8 + d, 0});
+                    captures |= av != 0 || wv != 0;
+                }
+            }
+            if (inCombo || captures) out.removeIf(m -> m[1] == 0);
+            if (inCombo) out.add(new long[]{720, 0});
+            return out;
+        }
+
+        // Plays action; true when it takes the last opponent piece.
+        boolean play(int action, long victims) {
+            if (action == 720) {
+                endTurn();
+                return false;
+            }
+            int from = action % 360 / 8, d = action % 8, to = step(from, d);
+            cell[from] = 0;
+            cell[to] = 1;
+            for (int i = 0; i < 45; i++) if ((victims >>> i & 1) != 0) cell[i] = 0;
+            if (!inCombo) {
+                Arrays.fill(visited, false);
+                visited[from] = true;
+            }
+            visited[to] = true;
+            if (victims == 0) {
+                endTurn();
+                return false;
+            }
+            boolean left = false;
+            for (int c : cell) left |= c == -1;
+            if (!left) return true;
+            inCombo = true;
+            piece = to;
+            lastDir = d;
+            if (moves().size() == 1) endTurn();
+            return false;
+        }
+
+        void endTurn() {
+            for (int i = 0; i < 45; i++) cell[i] = -cell[i];
+            Arrays.fill(visited, false);
+            player = -player;
+            inCombo = false;
+            piece = -1;
+            lastDir = -1;
+        }
+
+        boolean matches(GameState s) {
+            if (s.player != player || s.inCombo != inCombo || s.comboPiece != piece || s.lastDir != lastDir) return false;
+            for (int i = 0; i < 45; i++) {
+                if (((s.myPieces >>> i & 1) != 0) != (cell[i] == 1) || ((s.oppPieces >>> i & 1) != 0) != (cell[i] == -1)) return false;
+                if (((s.visitedMask >>> i & 1) != 0) != visited[i]) return false;
+            }
+            return true;
+        }
+    }
+
+    public static void main(String[] args) {
+        int depth = 5, threads = Runtime.getRuntime().availableProcessors(), hash = 0;
+        boolean divide = false, check = false;
+        String position = null;
+        for (String arg : args) {
+            if (arg.startsWith("--depth=")) depth = Integer.parseInt(arg.split("=")[1]);
+            if (arg.startsWith("--threads=")) threads = Integer.parseInt(arg.split("=")[1]);
+            if (arg.startsWith("--hash=")) hash = Integer.parseInt(arg.split("=")[1]);
+            if (arg.startsWith("--position=")) position = arg.substring(arg.indexOf('=') + 1);
+            if (arg.equals("--divide")) divide = true;
+            if (arg.equals("--verify")) check = true;
+        }
+        if (depth < 1) throw new IllegalArgumentException("--depth must be at least 1");
+        GameLogic.initTables();
+        Zobrist.init();
+        GameState root = position == null ? GameLogic.initialState() : GameLogic.fromJson(position);
+
+        if (check) {
+            String err = verify(root, depth);
+            System.out.println(err == null ? "verify: generators agree to depth " + depth : "verify: MISMATCH at" + err);
+            if (err != null) System.exit(1);
+        }
+
+        Perft perft = new Perft(hash);
+        long t0 = System.nanoTime(), total;
+        if (threads > 1 || divide) {
+            int[] ms = new int[GameLogic.MAX_MOVES];
+            int n = GameLogic.generate(root, ms, new long[GameLogic.MAX_MOVES]);
+            long[] counts = perft.divide(root, depth, new ForkJoinPool(Math.max(1, threads)));
+            total = 0;
+            for (int i = 0; i < n; i++) {
+                total += counts[i];
+                if (divide) System.out.println(GameLogic.describe(ms[i]) + ": " + counts[i]);
+            }
+        } else total = perft.perft(root, depth);
+        double secs = Math.max(1, System.nanoTime() - t0) / 1e9;
+        System.out.printf("perft(%d) = %d  %.3fs  %.0f leaves/s%n", depth, total, secs, total / secs);
+    }
+}
@@ -0,0 +1,46 @@
+package org.willy;
+
+// Switches and margins for the selective parts of negascout. Everything is on by default;
+// --disable=null,lmr,futility,razor,aspiration,killers turns features off to measure what they buy.
+class SearchConfig {
+    boolean nullMove = true, lmr = true, futility = true, razoring = true, aspiration = true, killers = true;
+
+    // Null move: minimum depth, base reduction, and material (pieces) the mover must keep to avoid zugzwang.
+    int nullMinDepth = 3, nullReduction = 2, nullMinPieces = 4;
+    // Late moves: reduced from this move index on, at this depth or more.
+    int lmrMinMove = 3, lmrMinDepth = 3;
+    int futilityMargin = 150, razorMargin = 250;
+    // Half width of the first root window around the previous iteration's score.
+    int aspirationWindow = 50;
+
+    static SearchConfig parse(String disabled) {
+        SearchConfig c = new SearchConfig();
+        if (disabled == null) return c;
+        for (String f : disabled.split(",")) {
+            switch (f.trim()) {
+                case "null" -> c.nullMove = false;
+                case "lmr" -> c.lmr = false;
+                case "futility" -> c.futility = false;
+                case "razor" -> c.razoring = false;
+                case "aspiration" -> c.aspiration = false;
+                case "killers" -> c.killers = false;
+                case "", "none" -> {
+                }
+                default -> throw new IllegalArgumentException("unknown search feature: " + f);
+            }
+        }
+        return c;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        if (nullMove) sb.append("null,");
+        if (lmr) sb.append("lmr,");
+        if (futility) sb.append("futility,");
+        if (razoring) sb.append("razor,");
+        if (aspiration) sb.append("aspiration,");
+        if (killers) sb.append("killers,");
+        return sb.isEmpty() ? "none" : sb.substring(0, sb.length() - 1);
+    }
+}
@@ -0,0 +1,125 @@
+package org.willy;
+
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Core-sized pool for CPU-bound searches with a bounded queue. Queue wait is charged against
+// the think time, so a search that waited too long is refused instead of answering late.
+class SearchExecutor {
+    interface Job {
+        void run(long waitMs);
+    }
+
+    private final ThreadPoolExecutor pool;
+    private final int capacity;
+    private final AtomicLong submitted = new AtomicLong(), completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong(), expired = new AtomicLong(), waitTotal = new AtomicLong();
+    private final AtomicLong ponders = new AtomicLong(), preempted = new AtomicLong();
+    private final Set<AIPlayer.StopFlag> background = ConcurrentHashMap.newKeySet();
+    private volatile long maxWait;
+    private static final String WORKER = "search-worker";
+
+    SearchExecutor(int workers, int capacity) {
+        this.capacity = capacity;
+        pool = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(capacity), r -> {
+            Thread t = new Thread(r, WORKER);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // A search for ai's session. The caller has claimed ai.searching, and refused the request if it could not:
+    // a duplicate would only park a worker on the session lock. The claim is released when the job ends.
+    boolean submit(AIPlayer ai, Job job) {
+        boolean queued = submit(wait -> {
+            try {
+                job.run(wait);
+            } finally {
+                ai.searching.set(false);
+            }
+        });
+        if (!queued) ai.searching.set(false);
+        return queued;
+    }
+
+    // False when the queue is full; the caller should answer 503 right away.
+    boolean submit(Job job) {
+        long queued = System.currentTimeMillis();
+        if (!background.isEmpty() && pool.getActiveCount() >= pool.getCorePoolSize()) {
+            for (AIPlayer.StopFlag f : background) {
+                f.set = true;
+                preempted.incrementAndGet();
+            }
+        }
+        try {
+            pool.execute(() -> {
+                long wait = System.currentTimeMillis() - queued;
+                waitTotal.addAndGet(wait);
+                if (wait > maxWait) maxWait = wait;
+                try {
+                    job.run(wait);
+                } finally {
+                    completed.incrementAndGet();
+                }
+            });
+            submitted.incrementAndGet();
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            return false;
+        }
+    }
+
+    // Low-priority work such as pondering. It is only accepted when nothing is queued and a worker is
+    // free once the calling search returns, and any submit() that finds every worker busy stops it.
+    boolean submitBackground(AIPlayer.StopFlag flag, Runnable work) {
+        int busy = pool.getActiveCount() - (Thread.currentThread().getName().equals(WORKER) ? 1 : 0);
+        if (busy >= pool.getCorePoolSize() || !pool.getQueue().isEmpty()) return false;
+        background.add(flag);
+        try {
+            pool.execute(() -> {
+                try {
+                    work.run();
+                } finally {
+                    background.remove(flag);
+                }
+            });
+            ponders.incrementAndGet();
+            return true;
+        } catch (RejectedExecutionException e) {
+            background.remove(flag);
+            return false;
+        }
+    }
+
+    // Work handed over to a request, such as a promoted ponder: submit() no longer stops it.
+    void foreground(AIPlayer.StopFlag flag) {
+        background.remove(flag);
+    }
+
+    int workers() {
+        return pool.getCorePoolSize();
+    }
+
+    // Think time left after queueing, or -1 once less than a tenth of the limit remains.
+    long budget(long waitMs, long limitMs) {
+        long left = limitMs - waitMs;
+        if (left < limitMs / 10) {
+            expired.incrementAndGet();
+            return -1;
+        }
+        return left;
+    }
+
+    String statsJson() {
+        long done = completed.get();
+        return String.format("{\"workers\": %d, \"active\": %d, \"queued\": %d, \"capacity\": %d, \"submitted\": %d, \"completed\": %d, \"rejected\": %d, \"expired\": %d, \"avg_wait_ms\": %d, \"max_wait_ms\": %d, \"ponders\": %d, \"ponders_preempted\": %d}",
+                pool.getCorePoolSize(), pool.getActiveCount(), pool.getQueue().size(), capacity, submitted.get(), done,
+                rejected.get(), expired.get(), waitTotal.get() / Math.max(1, done), maxWait, ponders.get(), preempted.get());
+    }
+}
@@ -0,0 +1,111 @@
+package org.willy;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// One AIPlayer and server-side Game per game id, all sharing the server's transposition table.
+// The id comes from the X-Game-Id header or a ?game= query parameter; clients that send neither share "default".
+class Sessions {
+    static final String DEFAULT_ID = "default";
+
+    interface SessionHandler {
+        void handle(HttpExchange ex, AIPlayer ai) throws IOException;
+    }
+
+    interface GameHandler {
+        void handle(HttpExchange ex, AIPlayer ai, Game game) throws IOException;
+    }
+
+    static class Session {
+        final AIPlayer ai;
+        final Game game = new Game();
+        volatile long lastSeen = System.currentTimeMillis();
+        // Open game channels (GameSocket); a session with one is in use however long it has been quiet.
+        final AtomicInteger channels = new AtomicInteger();
+
+        Session(AIPlayer ai) {
+            this.ai = ai;
+        }
+    }
+
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final TranspositionTable tt;
+    private final int maxSessions;
+
+    Sessions(TranspositionTable tt, int maxSessions) {
+        this.tt = tt;
+        this.maxSessions = maxSessions;
+    }
+
+    // Null for a new id once maxSessions games are open, so clients cannot make the server hold unlimited games.
+    Session session(String id) {
+        Session s = sessions.get(id);
+        if (s == null) {
+            if (sessions.size() >= maxSessions) return null;
+            s = sessions.computeIfAbsent(id, k -> new Session(new AIPlayer(tt)));
+        }
+        s.lastSeen = System.currentTimeMillis();
+        return s;
+    }
+
+    // Requests for the same game are serialized; different games never wait on each other.
+    // A request the handler could not read is answered 400.
+    HttpHandler route(SessionHandler h) {
+        return route((ex, ai, game) -> h.handle(ex, ai));
+    }
+
+    HttpHandler route(GameHandler h) {
+        return ex -> {
+            Session s = session(idOf(ex));
+            if (s == null) {
+                HttpUtil.sendError(ex, 503, "Too many open games");
+                return;
+            }
+            try {
+                synchronized (s.ai) {
+                    h.handle(ex, s.ai, s.game);
+                }
+            } catch (IllegalArgumentException e) {
+                HttpUtil.sendError(ex, 400, e.getMessage());
+            }
+        };
+    }
+
+    static String idOf(HttpExchange ex) {
+        String id = ex.getRequestHeaders().getFirst("X-Game-Id");
+        return idOf(id != null ? id : HttpUtil.query(ex, "game"));
+    }
+
+    static String idOf(String id) {
+        if (id == null || id.isEmpty() || id.length() > 64) return DEFAULT_ID;
+        return id;
+    }
+
+    void evictIdle(long idleMs) {
+        long now = System.currentTimeMillis();
+        sessions.entrySet().removeIf(e -> {
+            if (now - e.getValue().lastSeen < idleMs || e.getValue().channels.get() > 0) return false;
+            e.getValue().ai.retire();
+            return true;
+        });
+    }
+
+    void startEviction(int idleMinutes) {
+        Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "session-eviction");
+            t.setDaemon(true);
+            return t;
+        }).scheduleAtFixedRate(() -> evictIdle(TimeUnit.MINUTES.toMillis(idleMinutes)), 1, 1, TimeUnit.MINUTES);
+    }
+
+    int size() {
+        return sessions.size();
+    }
+}
@@ -0,0 +1,55 @@
+package org.willy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Lazy SMP scaling report: average completed depth and NPS per thread count at a fixed --time.
+// Usage: java -cp fanorona.jar org.willy.SmpScaling [--time=N] [--hash=N] [--positions=N] [--threads=1,2,4,8,16]
+class SmpScaling {
+    public static void main(String[] args) {
+        int positions = 8;
+        String threads = "1,2,4,8,16";
+        for (String arg : args) {
+            if (arg.startsWith("--time=")) FanoronaServer.Time_LIMIT = Integer.parseInt(arg.split("=")[1]);
+            if (arg.startsWith("--hash=")) FanoronaServer.HASH_MB = Integer.parseInt(arg.split("=")[1]);
+            if (arg.startsWith("--positions=")) positions = Integer.parseInt(arg.split("=")[1]);
+            if (arg.startsWith("--threads=")) threads = arg.split("=")[1];
+        }
+        GameLogic.initTables();
+        Zobrist.init();
+
+        List<GameState> suite = new ArrayList<>();
+        Random r = new Random(2024);
+        while (suite.size() < positions) {
+            GameState s = GameLogic.initialState();
+            int plies = 4 * suite.size() + r.nextInt(4);
+            for (int i = 0; i < plies && s != null; i++) {
+                List<Move> ms = GameLogic.getDetailedMoves(s);
+                if (ms.isEmpty()) s = null;
+                else {
+                    GameLogic.StepResult res = GameLogic.step(s, ms.get(r.nextInt(ms.size())).actionId);
+                    s = res.win ? null : res.state;
+                }
+            }
+            if (s != null && !GameLogic.getDetailedMoves(s).isEmpty()) suite.add(s);
+        }
+
+        StringBuilder report = new StringBuilder(String.format("%-8s %-10s %-12s %-10s%n", "Threads", "AvgDepth", "AvgNodes", "kNPS"));
+        for (String t : threads.split(",")) {
+            FanoronaServer.THREADS = Integer.parseInt(t.trim());
+            AIPlayer ai = new AIPlayer(new TranspositionTable(FanoronaServer.HASH_MB));
+            long depthSum = 0, nodeSum = 0, ms = 0;
+            for (GameState s : suite) {
+                long t0 = System.currentTimeMillis();
+                AIPlayer.AIResult res = ai.think(s);
+                ms += System.currentTimeMillis() - t0;
+                depthSum += res.depth;
+                nodeSum += res.nodes;
+            }
+            report.append(String.format("%-8d %-10.2f %-12d %-10.0f%n", FanoronaServer.THREADS, depthSum / (double) suite.size(),
+                    nodeSum / suite.size(), nodeSum / (double) Math.max(1, ms)));
+        }
+        System.out.print(report);
+    }
+}
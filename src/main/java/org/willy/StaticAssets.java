@@ -0,0 +1,142 @@
+package org.willy;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+// The page and any other static resources, read from the classpath once at startup and kept in memory
+// together with gzip and deflate variants compressed at the highest level. A request gets the first
+// variant the client accepts, gzip before deflate, written as it is; an If-None-Match naming that variant gets 304.
+// Paths that are not registered get 404.
+class StaticAssets implements HttpHandler {
+    private static final String[] ENCODINGS = {"gzip", "deflate"};
+
+    private static final class Asset {
+        final String type, cacheControl;
+        // Indexed like ENCODINGS, then identity last; a compressed variant that is not smaller is null.
+        final byte[][] bodies = new byte[ENCODINGS.length + 1][];
+        // Each variant is its own representation, so it gets its own tag.
+        final String[] etags = new String[ENCODINGS.length + 1];
+
+        Asset(String type, String cacheControl, byte[] raw) throws IOException {
+            this.type = type;
+            this.cacheControl = cacheControl;
+            CRC32 crc = new CRC32();
+            crc.update(raw);
+            String tag = Long.toHexString(crc.getValue()) + Integer.toHexString(raw.length);
+            bodies[ENCODINGS.length] = raw;
+            etags[ENCODINGS.length] = "\"" + tag + "\"";
+            for (int e = 0; e < ENCODINGS.length; e++) {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream(raw.length / 3);
+                // GZIPOutputStream ends its own deflater on close; one passed in has to be ended here.
+                Deflater deflater = e == 0 ? null : new Deflater(Deflater.BEST_COMPRESSION);
+                try (OutputStream os = e == 0 ? new GZIPOutputStream(bos) {{
+                    def.setLevel(Deflater.BEST_COMPRESSION);
+                }} : new DeflaterOutputStream(bos, deflater)) {
+                    os.write(raw);
+                } finally {
+                    if (deflater != null) deflater.end();
+                }
+                if (bos.size() < raw.length) bodies[e] = bos.toByteArray();
+                etags[e] = "\"" + tag + "-" + ENCODINGS[e] + "\"";
+            }
+        }
+    }
+
+    private final Map<String, Asset> assets = new HashMap<>();
+
+    // Serves resource at path. The page is revalidated on every load (a 304 costs no body), so a new
+    // build shows up at once; everything else may be cached for an hour.
+    StaticAssets add(String path, String resource, String type) throws IOException {
+        try (InputStream is = FanoronaServer.class.getClassLoader().getResourceAsStream(resource)) {
+            if (is == null) throw new IOException("Missing resource " + resource);
+            assets.put(path, new Asset(type, type.startsWith("text/html") ? "no-cache" : "public, max-age=3600", is.readAllBytes()));
+        }
+        return this;
+    }
+
+    @Override
+    public void handle(HttpExchange t) throws IOException {
+        try (t) {
+            Asset a = assets.get(t.getRequestURI().getPath());
+            if (a == null) {
+                t.sendResponseHeaders(404, -1);
+                return;
+            }
+            boolean head = t.getRequestMethod().equals("HEAD");
+            if (!head && !t.getRequestMethod().equals("GET")) {
+                t.getResponseHeaders().set("Allow", "GET, HEAD");
+                t.sendResponseHeaders(405, -1);
+                return;
+            }
+            int e = encoding(a, t.getRequestHeaders().getFirst("Accept-Encoding"));
+            Headers h = t.getResponseHeaders();
+            h.set("ETag", a.etags[e]);
+            h.set("Cache-Control", a.cacheControl);
+            h.set("Vary", "Accept-Encoding");
+            if (notModified(a.etags[e], t.getRequestHeaders().getFirst("If-None-Match"))) {
+                t.sendResponseHeaders(304, -1);
+                return;
+            }
+            byte[] body = a.bodies[e];
+            h.set("Content-Type", a.type);
+            if (e < ENCODINGS.length) h.set("Content-Encoding", ENCODINGS[e]);
+            if (head) {
+                h.set("Content-Length", Integer.toString(body.length));
+                t.sendResponseHeaders(200, -1);
+                return;
+            }
+            t.sendResponseHeaders(200, body.length);
+            t.getResponseBody().write(body);
+        }
+    }
+
+    // The first of ENCODINGS that the Accept-Encoding header allows (q=0 refuses), identity if none.
+    private static int encoding(Asset a, String accept) {
+        int best = ENCODINGS.length;
+        if (accept == null) return best;
+        for (String part : accept.split(",")) {
+            String[] p = part.trim().split(";");
+            int e = p[0].trim().equalsIgnoreCase("gzip") ? 0 : p[0].trim().equalsIgnoreCase("deflate") ? 1 : -1;
+            if (e >= 0 && e < best && a.bodies[e] != null && !refused(p)) best = e;
+        }
+        return best;
+    }
+
+    private static boolean refused(String[] params) {
+        for (int i = 1; i < params.length; i++) {
+            String q = params[i].trim();
+            if (q.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(q.substring(2)) <= 0;
+                } catch (NumberFormatException e) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Only the tag of the variant being served counts: a cached copy in another encoding is not this one.
+    private static boolean notModified(String etag, String ifNoneMatch) {
+        if (ifNoneMatch == null) return false;
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) tag = tag.substring(2);
+            if (tag.equals("*")) return true;
+            if (tag.equals(etag)) return true;
+        }
+        return false;
+    }
+}
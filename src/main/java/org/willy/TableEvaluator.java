@@ -0,0 +1,134 @@
+package org.willy;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+// Material plus piece-square tables, tapered between a middlegame and an endgame table by the number of
+// pieces left. The material + PST sum is kept in GameState by make(), so a leaf costs a few bit counts;
+// mobility and capture threats are whole-board shift counts and only computed when weighted.
+// The defaults reproduce the original evaluation: 100 per piece, POS_VAL, and in a material lead a pull
+// of chase per square of Manhattan distance towards the lowest-numbered enemy piece.
+// Weights file: '#' comments, then "name value..." lines for piece (mg eg), pst_mg and pst_eg (45 values
+// each, White's view; Black reads the board rotated), mobility, threat and chase. Missing names keep their default.
+class TableEvaluator implements Evaluator {
+    private static final int PHASE = GameLogic.NUM_POS - 1;
+
+    int pieceMg = 100, pieceEg = 100;
+    final int[] pstMg = GameLogic.POS_VAL.clone(), pstEg = GameLogic.POS_VAL.clone();
+    int mobility, threat, chase = 2;
+    String source = "default";
+
+    // Piece value plus PST per colour (0 White, 1 Black) and square, built from the weights above.
+    private final int[][] mgTab = new int[2][GameLogic.NUM_POS], egTab = new int[2][GameLogic.NUM_POS];
+
+    TableEvaluator() {
+        build();
+    }
+
+    private void build() {
+        for (int sq = 0; sq < GameLogic.NUM_POS; sq++) {
+            mgTab[0][sq] = pieceMg + pstMg[sq];
+            mgTab[1][sq] = pieceMg + pstMg[PHASE - sq];
+            egTab[0][sq] = pieceEg + pstEg[sq];
+            egTab[1][sq] = pieceEg + pstEg[PHASE - sq];
+        }
+    }
+
+    static TableEvaluator load(Path p) throws IOException {
+        TableEvaluator e = new TableEvaluator();
+        e.source = p.getFileName().toString();
+        for (String line : Files.readAllLines(p)) {
+            int hash = line.indexOf('#');
+            String[] t = (hash >= 0 ? line.substring(0, hash) : line).trim().split("\\s+");
+            if (t[0].isEmpty()) continue;
+            try {
+                int[] v = Arrays.stream(t, 1, t.length).mapToInt(Integer::parseInt).toArray();
+                switch (t[0]) {
+                    case "piece" -> {
+                        e.pieceMg = v[0];
+                        e.pieceEg = v.length > 1 ? v[1] : v[0];
+                    }
+                    case "pst_mg" -> copy(v, e.pstMg, t[0]);
+                    case "pst_eg" -> copy(v, e.pstEg, t[0]);
+                    case "mobility" -> e.mobility = v[0];
+                    case "threat" -> e.threat = v[0];
+                    case "chase" -> e.chase = v[0];
+                    default -> throw new IOException("unknown eval weight: " + t[0]);
+                }
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+                throw new IOException("bad eval weight line: " + line.trim());
+            }
+        }
+        e.build();
+        return e;
+    }
+
+    private static void copy(int[] v, int[] dst, String name) throws IOException {
+        if (v.length != dst.length) throw new IOException(name + " needs " + dst.length + " values, got " + v.length);
+        System.arraycopy(v, 0, dst, 0, v.length);
+    }
+
+    @Override
+    public void attach(GameState s) {
+        long white = s.player == 1 ? s.myPieces : s.oppPieces, black = s.player == 1 ? s.oppPieces : s.myPieces;
+        s.mg = sum(mgTab[0], white) - sum(mgTab[1], black);
+        s.eg = sum(egTab[0], white) - sum(egTab[1], black);
+        s.eval = this;
+    }
+
+    private static int sum(int[] tab, long pieces) {
+        int v = 0;
+        for (long t = pieces; t != 0; t &= t - 1) v += tab[Long.numberOfTrailingZeros(t)];
+        return v;
+    }
+
+    @Override
+    public void move(GameState s, int from, int to, long victims) {
+        int c = s.player == 1 ? 0 : 1, sign = 1 - 2 * c;
+        int mg = mgTab[c][to] - mgTab[c][from] + sum(mgTab[1 - c], victims);
+        int eg = egTab[c][to] - egTab[c][from] + sum(egTab[1 - c], victims);
+        s.mg += sign * mg;
+        s.eg += sign * eg;
+    }
+
+    // A tapered value never exceeds the larger of its two phases.
+    @Override
+    public int captureValue(GameState s, long victims) {
+        int c = s.player == 1 ? 1 : 0;
+        return Math.max(sum(mgTab[c], victims), sum(egTab[c], victims));
+    }
+
+    @Override
+    public int evaluate(GameState s) {
+        int mg = s.mg, eg = s.eg;
+        if (s.eval != this) {
+            long white = s.player == 1 ? s.myPieces : s.oppPieces, black = s.player == 1 ? s.oppPieces : s.myPieces;
+            mg = sum(mgTab[0], white) - sum(mgTab[1], black);
+            eg = sum(egTab[0], white) - sum(egTab[1], black);
+        }
+        int myC = Long.bitCount(s.myPieces), oppC = Long.bitCount(s.oppPieces), phase = myC + oppC;
+        int sc = (mg * phase + eg * (PHASE - phase)) / PHASE;
+        if (s.player != 1) sc = -sc;
+        if (mobility != 0 || threat != 0) {
+            long empty = GameLogic.BOARD & ~(s.myPieces | s.oppPieces);
+            if (mobility != 0) sc += mobility * (GameLogic.mobility(s.myPieces, empty) - GameLogic.mobility(s.oppPieces, empty));
+            if (threat != 0) {
+                if (GameLogic.canCapture(s.myPieces, s.oppPieces, empty, -1)) sc += threat;
+                if (GameLogic.canCapture(s.oppPieces, s.myPieces, empty, -1)) sc -= threat;
+            }
+        }
+        if (chase != 0 && myC > oppC && oppC > 0) {
+            int enemyP = Long.numberOfTrailingZeros(s.oppPieces);
+            int er = GameLogic.POS_R[enemyP], ec = GameLogic.POS_C[enemyP];
+            int dSum = 0;
+            for (long my = s.myPieces; my != 0; my &= my - 1) {
+                int p = Long.numberOfTrailingZeros(my);
+                dSum += Math.abs(GameLogic.POS_R[p] - er) + Math.abs(GameLogic.POS_C[p] - ec);
+            }
+            sc -= dSum * chase;
+        }
+        return sc;
+    }
+}
@@ -0,0 +1,118 @@
+package org.willy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Exact distance-to-mate for every turn-start position with few pieces, one table per
+// material signature (m, o) = (side to move, opponent). Values are shorts counted in turns:
+// n > 0 wins in n, -(n + 1) loses in n, 0 is a draw. A position is indexed by the combinadic
+// rank of the mover's squares times C(45 - m, o) plus the rank of the opponent's squares
+// among the squares left over.
+// File (little-endian): "FNRT", version, max pieces, table count, then per table m, o, byte
+// offset and entry count, then the tables. Each table is mapped on its own.
+class Tablebase {
+    static final int NONE = Integer.MIN_VALUE;
+    // Above MATE_THRESHOLD so the search treats a known result like a found mate, but below
+    // the scores of mates the search actually reaches.
+    static final int WIN_SCORE = FanoronaServer.MATE_THRESHOLD + 1_000_000;
+    static final int VERSION = 1;
+    static final int MAGIC = 'F' | 'N' << 8 | 'R' << 16 | 'T' << 24;
+    static final int HEADER = 16, DIR_ENTRY = 24;
+    // Largest total the loader accepts. Every table up to 6 pieces (3v3 is 163M entries) fits one short[] and
+    // one mapping; at 7, 3v4 and 4v3 pass 2 GB, and at 8 several tables pass Integer.MAX_VALUE entries.
+    static final int MAX_PIECES = 6;
+
+    private static final long[][] C = new long[GameLogic.NUM_POS + 1][GameLogic.NUM_POS + 1];
+
+    static {
+        for (int n = 0; n <= GameLogic.NUM_POS; n++) {
+            C[n][0] = 1;
+            for (int k = 1; k <= n; k++) C[n][k] = C[n - 1][k - 1] + C[n - 1][k];
+        }
+    }
+
+    final int maxPieces;
+    private final ByteBuffer[][] tables;
+
+    private Tablebase(int maxPieces, ByteBuffer[][] tables) {
+        this.maxPieces = maxPieces;
+        this.tables = tables;
+    }
+
+    static Tablebase load(Path p) throws IOException {
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+            ByteBuffer h = ch.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(ch.size(), 4096)).order(ByteOrder.LITTLE_ENDIAN);
+            if (h.limit() < HEADER || h.getInt(0) != MAGIC || h.getInt(4) != VERSION) throw new IOException("not a version " + VERSION + " tablebase");
+            int k = h.getInt(8), n = h.getInt(12);
+            if (k < 2 || k > MAX_PIECES || h.limit() < HEADER + n * DIR_ENTRY) throw new IOException("bad tablebase directory");
+            ByteBuffer[][] tables = new ByteBuffer[k][k];
+            for (int i = 0; i < n; i++) {
+                int off = HEADER + i * DIR_ENTRY;
+                int m = h.getInt(off), o = h.getInt(off + 4);
+                long at = h.getLong(off + 8), count = h.getLong(off + 16);
+                if (m < 1 || o < 1 || m + o > k || count != size(m, o) || at + count * 2 > ch.size()) throw new IOException("bad table " + m + "v" + o);
+                tables[m][o] = ch.map(FileChannel.MapMode.READ_ONLY, at, count * 2).order(ByteOrder.LITTLE_ENDIAN);
+            }
+            return new Tablebase(k, tables);
+        }
+    }
+
+    // Raw table value for the side to move at a turn start, or NONE when the material is not covered.
+    int probe(long my, long opp) {
+        int m = Long.bitCount(my), o = Long.bitCount(opp);
+        if (m == 0 || o == 0 || m + o > maxPieces) return NONE;
+        ByteBuffer t = tables[m][o];
+        if (t == null) return NONE;
+        return t.getShort((int) (index(my, opp, o) * 2));
+    }
+
+    static int score(int v) {
+        if (v > 0) return WIN_SCORE - v;
+        if (v < 0) return -WIN_SCORE - v - 1;
+        return 0;
+    }
+
+    static long size(int m, int o) {
+        return C[GameLogic.NUM_POS][m] * C[GameLogic.NUM_POS - m][o];
+    }
+
+    static long index(long my, long opp, int o) {
+        long r = 0;
+        int i = 0;
+        for (long t = my; t != 0; t &= t - 1) r += C[Long.numberOfTrailingZeros(t)][++i];
+        long q = 0;
+        i = 0;
+        for (long t = opp; t != 0; t &= t - 1) {
+            int sq = Long.numberOfTrailingZeros(t);
+            q += C[sq - Long.bitCount(my & ((1L << sq) - 1))][++i];
+        }
+        return r * C[GameLogic.NUM_POS - Long.bitCount(my)][o] + q;
+    }
+
+    // Inverse of index: {my, opp}.
+    static long[] squares(long idx, int m, int o) {
+        long per = C[GameLogic.NUM_POS - m][o];
+        long my = unrank(idx / per, m, GameLogic.NUM_POS);
+        long free = unrank(idx % per, o, GameLogic.NUM_POS - m), opp = 0;
+        for (int sq = 0, j = 0; sq < GameLogic.NUM_POS; sq++) {
+            if ((my & (1L << sq)) != 0) continue;
+            if ((free & (1L << j++)) != 0) opp |= 1L << sq;
+        }
+        return new long[]{my, opp};
+    }
+
+    private static long unrank(long r, int k, int n) {
+        long mask = 0;
+        for (int i = k, s = n - 1; i > 0; i--) {
+            while (C[s][i] > r) s--;
+            r -= C[s][i];
+            mask |= 1L << s;
+            s--;
+        }
+        return mask;
+    }
+}
@@ -0,0 +1,216 @@
+package org.willy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+
+// Builds the Tablebase file for up to --pieces total pieces, one total at a time.
+// A capture always lowers the material, so every position with a capture resolves in one pass
+// from the finished smaller tables; the whole turn, capture chain and optional stop included,
+// is walked to its end position. Positions without a capture only make quiet moves into the
+// mirrored signature (o, m) of the same total, and are solved by iterating over the distance:
+// in round k a position wins if a move reaches a loss in at most k - 1, and loses if every
+// move reaches a win in at most k - 1. Whatever is left when no distance can change is a draw.
+// Usage: java -cp fanorona.jar org.willy.TablebaseBuilder [--pieces=K] [--threads=N] [--out=file]
+class TablebaseBuilder {
+    private static final short UNKNOWN = Short.MIN_VALUE;
+
+    private final int maxPieces;
+    private final short[][][] values;
+
+    TablebaseBuilder(int maxPieces) {
+        this.maxPieces = maxPieces;
+        values = new short[maxPieces][maxPieces][];
+    }
+
+    // Per-thread move buffers; a turn has at most one step per opponent piece plus the stop,
+    // so TURN plies cover any total the loader accepts.
+    private static final int TURN = 16;
+
+    private static class Scratch {
+        final int[][] moves = new int[TURN][GameLogic.MAX_MOVES];
+        final long[][] victims = new long[TURN][GameLogic.MAX_MOVES];
+        final long[] undo = new long[TURN * GameState.UNDO];
+        final GameState s = new GameState();
+        int minWin, maxLoss;
+        boolean draw;
+    }
+
+    private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+    void build(ForkJoinPool pool) throws Exception {
+        for (int total = 2; total <= maxPieces; total++) {
+            long t0 = System.currentTimeMillis();
+            int t = total;
+            for (int m = 1; m < total; m++) {
+                int mm = m;
+                short[] v = new short[(int) Tablebase.size(m, total - m)];
+                values[m][total - m] = v;
+                pool.submit(() -> IntStream.range(0, v.length).parallel().forEach(i -> v[i] = captures(mm, t - mm, i))).get();
+            }
+            int rounds = 0;
+            for (int k = 1; ; k++, rounds++) {
+                AtomicBoolean changed = new AtomicBoolean();
+                int kk = k;
+                for (int m = 1; m < total; m++) {
+                    int mm = m;
+                    short[] v = values[m][total - m];
+                    pool.submit(() -> IntStream.range(0, v.length).parallel().forEach(i -> {
+                        if (v[i] == UNKNOWN && quiet(mm, t - mm, i, kk, v)) changed.set(true);
+                    })).get();
+                }
+                if (!changed.get() && k > maxDistance(total) + 1) break;
+            }
+            long[] counts = new long[3];
+            for (int m = 1; m < total; m++) {
+                short[] v = values[m][total - m];
+                for (int i = 0; i < v.length; i++) {
+                    if (v[i] == UNKNOWN) v[i] = 0;
+                    counts[v[i] > 0 ? 0 : v[i] < 0 ? 1 : 2]++;
+                }
+            }
+            System.out.printf("%d pieces: %d wins, %d losses, %d draws, %d rounds, %.1fs%n",
+                    total, counts[0], counts[1], counts[2], rounds, (System.currentTimeMillis() - t0) / 1000.0);
+        }
+    }
+
+    private Scratch position(int m, int o, long idx) {
+        Scratch w = scratch.get();
+        long[] sq = Tablebase.squares(idx, m, o);
+        GameState s = w.s;
+        s.myPieces = sq[0];
+        s.oppPieces = sq[1];
+        s.player = 1;
+        s.inCombo = false;
+        s.comboPiece = s.prevPos = s.lastDir = -1;
+        s.visitedMask = 0;
+        s.initHash();
+        return w;
+    }
+
+    // Value from the smaller tables when the mover must capture, UNKNOWN when only quiet moves exist.
+    private short captures(int m, int o, int idx) {
+        Scratch w = position(m, o, idx);
+        int n = GameLogic.generate(w.s, w.moves[0], w.victims[0]);
+        if (n == 0) return -1;
+        if (w.victims[0][0] == 0) return UNKNOWN;
+        w.minWin = Integer.MAX_VALUE;
+        w.maxLoss = -1;
+        w.draw = false;
+        turns(w, 0);
+        if (w.minWin != Integer.MAX_VALUE) return (short) w.minWin;
+        if (w.draw) return 0;
+        return (short) -(w.maxLoss + 1);
+    }
+
+    // Walks every continuation of the current turn and folds in the value of each end position.
+    private void turns(Scratch w, int ply) {
+        GameState s = w.s;
+        int[] ms = w.moves[ply];
+        long[] vs = w.victims[ply];
+        int n = GameLogic.generate(s, ms, vs);
+        for (int i = 0; i < n; i++) {
+            s.save(w.undo, ply * GameState.UNDO);
+            if (GameLogic.make(s, ms[i], vs[i])) w.minWin = 1;
+            else if (s.inCombo) turns(w, ply + 1);
+            else {
+                int v = values[Long.bitCount(s.myPieces)][Long.bitCount(s.oppPieces)][(int) Tablebase.index(s.myPieces, s.oppPieces, Long.bitCount(s.oppPieces))];
+                if (v < 0) w.minWin = Math.min(w.minWin, -v);
+                else if (v > 0) w.maxLoss = Math.max(w.maxLoss, v + 1);
+                else w.draw = true;
+            }
+            s.restore(w.undo, ply * GameState.UNDO);
+        }
+    }
+
+    // Round k for a position with only quiet moves; every move lands in table (o, m).
+    private boolean quiet(int m, int o, int idx, int k, short[] v) {
+        Scratch w = position(m, o, idx);
+        GameState s = w.s;
+        int n = GameLogic.generate(s, w.moves[0], w.victims[0]);
+        short[] next = values[o][m];
+        boolean allWin = true;
+        for (int i = 0; i < n; i++) {
+            s.save(w.undo, 0);
+            GameLogic.make(s, w.moves[0][i], 0);
+            int r = next[(int) Tablebase.index(s.myPieces, s.oppPieces, m)];
+            s.restore(w.undo, 0);
+            if (r == UNKNOWN || r == 0) allWin = false;
+            else if (r < 0) {
+                if (-r <= k) {
+                    v[idx] = (short) k;
+                    return true;
+                }
+                allWin = false;
+            } else if (r + 1 > k) allWin = false;
+        }
+        if (!allWin) return false;
+        v[idx] = (short) -(k + 1);
+        return true;
+    }
+
+    private int maxDistance(int total) {
+        int max = 0;
+        for (int m = 1; m < total; m++) {
+            for (short x : values[m][total - m]) {
+                if (x != UNKNOWN) max = Math.max(max, x > 0 ? x : -x - 1);
+            }
+        }
+        return max;
+    }
+
+    void write(Path p) throws IOException {
+        int tables = 0;
+        for (int m = 1; m < maxPieces; m++) for (int o = 1; m + o <= maxPieces; o++) tables++;
+        ByteBuffer h = ByteBuffer.allocate(Tablebase.HEADER + tables * Tablebase.DIR_ENTRY).order(ByteOrder.LITTLE_ENDIAN);
+        h.putInt(Tablebase.MAGIC).putInt(Tablebase.VERSION).putInt(maxPieces).putInt(tables);
+        long at = h.capacity();
+        for (int m = 1; m < maxPieces; m++) {
+            for (int o = 1; m + o <= maxPieces; o++) {
+                h.putInt(m).putInt(o).putLong(at).putLong(values[m][o].length);
+                at += values[m][o].length * 2L;
+            }
+        }
+        h.flip();
+        Path tmp = p.resolveSibling(p.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (h.hasRemaining()) ch.write(h);
+            for (int m = 1; m < maxPieces; m++) {
+                for (int o = 1; m + o <= maxPieces; o++) {
+                    ByteBuffer b = ByteBuffer.allocate(values[m][o].length * 2).order(ByteOrder.LITTLE_ENDIAN);
+                    b.asShortBuffer().put(values[m][o]);
+                    while (b.hasRemaining()) ch.write(b);
+                }
+            }
+            ch.force(true);
+        }
+        Files.move(tmp, p, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int pieces = 4, threads = Runtime.getRuntime().availableProcessors();
+        String out = FanoronaServer.TABLEBASE_FILE;
+        for (String arg : args) {
+            if (arg.startsWith("--pieces=")) pieces = Integer.parseInt(arg.split("=")[1]);
+            if (arg.startsWith("--threads=")) threads = Integer.parseInt(arg.split("=")[1]);
+            if (arg.startsWith("--out=")) out = arg.substring(arg.indexOf('=') + 1);
+        }
+        if (pieces < 2 || pieces > Math.min(Tablebase.MAX_PIECES, TURN))
+            throw new IllegalArgumentException("--pieces must be between 2 and " + Math.min(Tablebase.MAX_PIECES, TURN));
+        GameLogic.initTables();
+        Zobrist.init();
+        long t0 = System.currentTimeMillis();
+        TablebaseBuilder b = new TablebaseBuilder(pieces);
+        b.build(new ForkJoinPool(Math.max(1, threads)));
+        b.write(Path.of(out));
+        System.out.printf("Tablebase up to %d pieces in %.1fs -> %s%n", pieces, (System.currentTimeMillis() - t0) / 1000.0, out);
+    }
+}
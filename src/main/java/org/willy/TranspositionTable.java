@@ -0,0 +1,183 @@
+package org.willy;
+
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+// Fixed-size table of packed long slots. Buckets of 4 entries fill one 64-byte cache line.
+// Each entry is two longs: (key ^ data, data), so a torn write from another thread fails the key check.
+class TranspositionTable {
+    static final int EXACT = 0, LOWER = 1, UPPER = 2;
+
+    private static final int BUCKET_LONGS = 8;
+    private static final long VALID = 1L << 63;
+    private static final int PAGE_SHIFT = 12;
+
+    private final long[] slots;
+    private final int mask;
+    // One byte per bucket plus one per page of 4096 buckets, set on every store so a checkpoint only
+    // visits what changed. Races only ever leave a flag set, which costs one redundant bucket write.
+    private final byte[] dirty, dirtyPages;
+    private int age;
+    private int used;
+
+    TranspositionTable(int mb) {
+        long buckets = Long.highestOneBit(Math.max(1L, (long) mb) * 1024 * 1024 / (BUCKET_LONGS * 8));
+        buckets = Math.min(buckets, 1L << 27);
+        slots = new long[(int) buckets * BUCKET_LONGS];
+        mask = (int) buckets - 1;
+        dirty = new byte[(int) buckets];
+        dirtyPages = new byte[(int) ((buckets + (1 << PAGE_SHIFT) - 1) >> PAGE_SHIFT)];
+    }
+
+    void clear() {
+        Arrays.fill(slots, 0);
+        clearDirty();
+        used = 0;
+    }
+
+    void newSearch() {
+        age = (age + 1) & 0xFF;
+    }
+
+    // Returns the packed entry for key, or 0 on a miss.
+    long probe(long key) {
+        int base = ((int) key & mask) * BUCKET_LONGS;
+        for (int i = base; i < base + BUCKET_LONGS; i += 2) {
+            long data = slots[i + 1];
+            if (data != 0 && (slots[i] ^ data) == key) return data;
+        }
+        return 0;
+    }
+
+    void store(long key, int depth, int score, int flag, int move) {
+        int base = ((int) key & mask) * BUCKET_LONGS;
+        int victim = base, worst = Integer.MAX_VALUE;
+        for (int i = base; i < base + BUCKET_LONGS; i += 2) {
+            long data = slots[i + 1];
+            if (data == 0) {
+                victim = i;
+                used++;
+                break;
+            }
+            if ((slots[i] ^ data) == key) {
+                if (flag != EXACT && depth < depth(data) - 2 && age(data) == age) return;
+                if (move == -1) move = move(data);
+                victim = i;
+                break;
+            }
+            int value = depth(data) - 8 * ((age - age(data)) & 0xFF);
+            if (value < worst) {
+                worst = value;
+                victim = i;
+            }
+        }
+        long data = VALID
+                | ((long) age << 52)
+                | ((long) flag << 50)
+                | ((long) Math.max(0, Math.min(255, depth)) << 42)
+                | ((long) (move + 1) << 32)
+                | (score & 0xFFFFFFFFL);
+        slots[victim] = key ^ data;
+        slots[victim + 1] = data;
+        int bucket = base / BUCKET_LONGS;
+        dirty[bucket] = 1;
+        dirtyPages[bucket >> PAGE_SHIFT] = 1;
+    }
+
+    static int score(long e) {
+        return (int) e;
+    }
+
+    static int move(long e) {
+        return (int) ((e >>> 32) & 0x3FF) - 1;
+    }
+
+    static int depth(long e) {
+        return (int) ((e >>> 42) & 0xFF);
+    }
+
+    static int flag(long e) {
+        return (int) ((e >>> 50) & 0x3);
+    }
+
+    private static int age(long e) {
+        return (int) ((e >>> 52) & 0xFF);
+    }
+
+    int size() {
+        return used;
+    }
+
+    // Raw slot access for persistence. Copies race with concurrent stores, but every entry
+    // carries its own key check, so a torn pair is just a miss after reload.
+    int length() {
+        return slots.length;
+    }
+
+    int age() {
+        return age;
+    }
+
+    void copyOut(int from, LongBuffer dst, int n) {
+        dst.put(slots, from, n);
+    }
+
+    void copyIn(int to, LongBuffer src) {
+        src.get(slots, to, src.remaining());
+    }
+
+    interface BucketSink {
+        void bucket(int index, long[] slots, int off);
+    }
+
+    // Hands every bucket stored to since the last drain to the sink, clearing its flag first so a
+    // concurrent store lands in the next drain. Returns the number of buckets visited.
+    int drainDirty(BucketSink sink) {
+        int n = 0;
+        for (int p = 0; p < dirtyPages.length; p++) {
+            if (dirtyPages[p] == 0) continue;
+            dirtyPages[p] = 0;
+            int end = Math.min(dirty.length, (p + 1) << PAGE_SHIFT);
+            for (int b = p << PAGE_SHIFT; b < end; b++) {
+                if (dirty[b] == 0) continue;
+                dirty[b] = 0;
+                sink.bucket(b, slots, b * BUCKET_LONGS);
+                n++;
+            }
+        }
+        return n;
+    }
+
+    void clearDirty() {
+        Arrays.fill(dirtyPages, (byte) 0);
+        Arrays.fill(dirty, (byte) 0);
+    }
+
+    int buckets() {
+        return dirty.length;
+    }
+
+    // Overwrites one bucket from a delta record; the caller calls restored() once it is done.
+    void copyBucketIn(int index, LongBuffer src) {
+        src.get(slots, index * BUCKET_LONGS, BUCKET_LONGS);
+    }
+
+    // Recounts the occupied slots after a bulk copyIn.
+    void restored(int age) {
+        this.age = age & 0xFF;
+        int n = 0;
+        for (int i = 1; i < slots.length; i += 2) if (slots[i] != 0) n++;
+        used = n;
+    }
+
+    interface EntryVisitor {
+        void visit(long key, int depth, int score, int flag, int move);
+    }
+
+    void forEach(EntryVisitor v) {
+        for (int i = 0; i < slots.length; i += 2) {
+            long data = slots[i + 1];
+            if (data != 0) v.visit(slots[i] ^ data, depth(data), score(data), flag(data), move(data));
+        }
+    }
+}
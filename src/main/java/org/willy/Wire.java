@@ -0,0 +1,144 @@
+package org.willy;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Binary alternative to the JSON bodies of /get_state, /move and /ai. A body sent as application/x-fanorona
+// is read as binary, and the reply is binary when Accept names that type; errors stay JSON. Big-endian:
+//   position    i8 player, u8 flags (1 = in combo), i8 comboPiece, i8 prevPos, u64 white, u64 black, u64 visited
+//   request     position, then u16 action_id for /move
+//   /move       position, u8 win
+//   /get_state  u16 count, then count times u16 action_id, u64 victims (getDetailedMoves order)
+//   /ai         u16 action_id, i32 score, u16 length + UTF-8 strategy, u16 length + UTF-8 pv
+// The server-side game (/game/*) takes only u16 action_id, optionally followed by the u16 ply it is meant for, and replies:
+//   game        u16 ply, position, u8 win, moves as for /get_state
+//   delta       u16 ply, u16 action_id, u64 victims, i8 player, u8 flags (1 = in combo, 2 = win), i8 comboPiece, moves
+//   /game/ai    delta, then the /ai reply from i32 score on
+// White is player 1 and -1 means none. From, to, type and the victim order all follow from the action id.
+class Wire {
+    static final String TYPE = "application/x-fanorona";
+    static final int POSITION = 28;
+    private static final ThreadLocal<Wire> LOCAL = ThreadLocal.withInitial(Wire::new);
+
+    private final byte[] in = new byte[POSITION + 2];
+    private byte[] out = new byte[256];
+    private int len;
+    private final int[] actions = new int[GameLogic.MAX_MOVES];
+    private final long[] victims = new long[GameLogic.MAX_MOVES];
+    // The last request read on this thread.
+    final GameState state = new GameState();
+    int actionId, ply;
+
+    static boolean sent(HttpExchange t) {
+        String type = t.getRequestHeaders().getFirst("Content-Type");
+        return type != null && type.startsWith(TYPE);
+    }
+
+    static boolean wanted(HttpExchange t) {
+        String accept = t.getRequestHeaders().getFirst("Accept");
+        return accept != null && accept.contains(TYPE);
+    }
+
+    static Wire read(HttpExchange t) throws IOException {
+        Wire w = LOCAL.get();
+        int n = t.getRequestBody().readNBytes(w.in, 0, w.in.length);
+        if (n < POSITION) throw new IllegalArgumentException("Binary position needs " + POSITION + " bytes, got " + n);
+        byte[] b = w.in;
+        GameLogic.load(w.state, b[0], getLong(b, 4), getLong(b, 12), (b[1] & 1) != 0, b[2], b[3], getLong(b, 20));
+        w.actionId = n >= POSITION + 2 ? (b[POSITION] & 0xFF) << 8 | b[POSITION + 1] & 0xFF : -1;
+        return w;
+    }
+
+    // A server-side game request: the action and the ply it is meant for (-1 if not given).
+    static Wire action(HttpExchange t) throws IOException {
+        Wire w = LOCAL.get();
+        int n = t.getRequestBody().readNBytes(w.in, 0, 4);
+        if (n < 2) throw new IllegalArgumentException("Binary move needs a u16 action_id");
+        w.actionId = (w.in[0] & 0xFF) << 8 | w.in[1] & 0xFF;
+        w.ply = n == 4 ? (w.in[2] & 0xFF) << 8 | w.in[3] & 0xFF : -1;
+        return w;
+    }
+
+    // The request position of either encoding, in a fresh state the caller may keep.
+    static GameState position(HttpExchange t) throws IOException {
+        return sent(t) ? read(t).state.copy() : GameLogic.fromJson(JsonUtil.read(t), new GameState());
+    }
+
+    private static long getLong(byte[] b, int off) {
+        long v = 0;
+        for (int i = 0; i < 8; i++) v = v << 8 | b[off + i] & 0xFF;
+        return v;
+    }
+
+    static Wire writer() {
+        Wire w = LOCAL.get();
+        w.len = 0;
+        return w;
+    }
+
+    private void room(int n) {
+        if (len + n > out.length) out = Arrays.copyOf(out, Math.max(2 * out.length, len + n));
+    }
+
+    Wire u8(int v) {
+        room(1);
+        out[len++] = (byte) v;
+        return this;
+    }
+
+    Wire u16(int v) {
+        return u8(v >>> 8).u8(v);
+    }
+
+    Wire i32(int v) {
+        return u16(v >>> 16).u16(v);
+    }
+
+    Wire u64(long v) {
+        return i32((int) (v >>> 32)).i32((int) v);
+    }
+
+    Wire str(String s) {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        int n = Math.min(b.length, 0xFFFF);
+        u16(n);
+        room(n);
+        System.arraycopy(b, 0, out, len, n);
+        len += n;
+        return this;
+    }
+
+    Wire position(GameState s) {
+        long white = s.player == 1 ? s.myPieces : s.oppPieces, black = s.player == 1 ? s.oppPieces : s.myPieces;
+        return u8(s.player).u8(s.inCombo ? 1 : 0).u8(s.comboPiece).u8(s.prevPos).u64(white).u64(black).u64(s.visitedMask);
+    }
+
+    Wire moves(GameState s) {
+        int n = GameLogic.generate(s, actions, victims);
+        u16(n);
+        for (int i = 0; i < n; i++) u16(actions[i]).u64(victims[i]);
+        return this;
+    }
+
+    Wire game(Game g) {
+        u16(g.ply).position(g.state).u8(g.win ? 1 : 0);
+        return g.win ? u16(0) : moves(g.state);
+    }
+
+    Wire delta(Game g) {
+        u16(g.ply).u16(g.action).u64(g.victims).u8(g.state.player).u8((g.state.inCombo ? 1 : 0) | (g.win ? 2 : 0)).u8(g.state.comboPiece);
+        return g.win ? u16(0) : moves(g.state);
+    }
+
+    void send(HttpExchange t) throws IOException {
+        t.getResponseHeaders().set("Content-Type", TYPE);
+        t.sendResponseHeaders(200, len);
+        try (OutputStream os = t.getResponseBody()) {
+            os.write(out, 0, len);
+        }
+    }
+}
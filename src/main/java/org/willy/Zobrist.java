@@ -2,30 +2,58 @@ package org.willy;
 
 import java.util.Random;
 
+// Keys are per colour (P[i][0] = player 1, P[i][1] = player -1), so ending a turn only toggles T
+// and the combo keys instead of rehashing every piece after the my/opp swap.
 class Zobrist {
     static long[][] P = new long[GameLogic.NUM_POS][2];
     static long T;
+    static long[] COMBO = new long[GameLogic.NUM_POS];
+    static long[] VISITED = new long[GameLogic.NUM_POS];
+    static long[] DIR = new long[8];
 
     static void init() {
-        Random r = new Random(12345);
+        // Seed differs from the relative-colour scheme so stale memory entries can't alias new keys.
+        Random r = new Random(45_2026L);
         for (int i = 0; i < GameLogic.NUM_POS; i++) {
             P[i][0] = r.nextLong();
             P[i][1] = r.nextLong();
+            COMBO[i] = r.nextLong();
+            VISITED[i] = r.nextLong();
         }
+        for (int d = 0; d < 8; d++) DIR[d] = r.nextLong();
         T = r.nextLong();
     }
 
     static long compute(GameState s) {
-        long h = 0, m = s.myPieces, o = s.oppPieces;
+        int me = s.player == 1 ? 0 : 1;
+        long h = pieces(s.myPieces, me) ^ pieces(s.oppPieces, 1 - me);
+        if (s.player == -1) h ^= T;
+        return h ^ combo(s);
+    }
+
+    static long pieces(long m, int colour) {
+        long h = 0;
         while (m != 0) {
-            h ^= P[Long.numberOfTrailingZeros(m)][0];
+            h ^= P[Long.numberOfTrailingZeros(m)][colour];
             m &= (m - 1);
         }
-        while (o != 0) {
-            h ^= P[Long.numberOfTrailingZeros(o)][1];
-            o &= (o - 1);
+        return h;
+    }
+
+    static long visited(long m) {
+        long h = 0;
+        while (m != 0) {
+            h ^= VISITED[Long.numberOfTrailingZeros(m)];
+            m &= (m - 1);
         }
-        if (s.player == -1) h ^= T;
+        return h;
+    }
+
+    // Combo piece, forbidden direction and visited squares; zero outside a capture chain.
+    static long combo(GameState s) {
+        long h = visited(s.visitedMask);
+        if (s.comboPiece != -1) h ^= COMBO[s.comboPiece];
+        if (s.lastDir != -1) h ^= DIR[s.lastDir];
         return h;
     }
 }
@@ -0,0 +1,53 @@
+package org.willy;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchAnalyzerTest {
+    private static String START;
+
+    @BeforeAll
+    static void init() {
+        GameLogic.initTables();
+        Zobrist.init();
+        START = JsonUtil.writer().raw("{\"id\": \"start\", ").position(GameLogic.initialState()).raw("}").toString();
+    }
+
+    private static List<String> run(BatchAnalyzer b, String input) throws Exception {
+        List<String> out = new ArrayList<>();
+        assertEquals(input.lines().filter(l -> !l.isBlank()).count(), b.run(new BufferedReader(new StringReader(input)), Runnable::run, 1, out::add));
+        return out;
+    }
+
+    @Test
+    void answersEveryLineWithItsIndexAndId() throws Exception {
+        List<String> out = run(new BatchAnalyzer(new TranspositionTable(4), 3, 0, 0), START + "\n\n{\"id\": 7, \"board\": [1]}\n");
+        assertEquals(2, out.size());
+        JsonUtil.Reader ok = JsonUtil.parse(out.get(0));
+        assertEquals("\"start\"", ok.id);
+        assertTrue(GameLogic.legal(GameLogic.initialState(), ok.actionId), out.get(0));
+        assertTrue(out.get(1).startsWith("{\"index\": 1, \"id\": 7, \"error\": "), out.get(1));
+    }
+
+    @Test
+    void timeLimitEndsADeepSearch() throws Exception {
+        long t0 = System.currentTimeMillis();
+        List<String> out = run(new BatchAnalyzer(new TranspositionTable(4), 1000, 0, 200), START);
+        assertTrue(System.currentTimeMillis() - t0 < 5000, "took " + (System.currentTimeMillis() - t0) + " ms");
+        assertTrue(out.get(0).contains("\"action_id\": "), out.get(0));
+    }
+
+    @Test
+    void nodeBudgetEndsADeepSearch() throws Exception {
+        List<String> out = run(new BatchAnalyzer(new TranspositionTable(4), 1000, 20_000, 0), START);
+        long nodes = Long.parseLong(out.get(0).replaceAll(".*\"nodes\": (\\d+).*", "$1"));
+        assertTrue(nodes < 200_000, out.get(0));
+    }
+}
@@ -0,0 +1,122 @@
+package org.willy;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GameTest {
+    @BeforeAll
+    static void init() {
+        GameLogic.initTables();
+        Zobrist.init();
+    }
+
+    private static AIPlayer player() {
+        AIPlayer ai = new AIPlayer(new TranspositionTable(1));
+        ai.verbose = false;
+        ai.pondering = false;
+        return ai;
+    }
+
+    @Test
+    void legalAgreesWithGenerate() {
+        Playouts.run(1, 2000, (s, ms, vs, n) -> {
+            boolean[] generated = new boolean[723];
+            for (int i = 0; i < n; i++) generated[ms[i]] = true;
+            for (int a = -1; a <= 722; a++) assertEquals(a >= 0 && generated[a], GameLogic.legal(s, a), "action " + a);
+        });
+    }
+
+    @Test
+    void loadRejectsImpossiblePositions() {
+        GameState s = new GameState();
+        assertThrows(IllegalArgumentException.class, () -> GameLogic.load(s, 0, 1, 2, false, -1, -1, 0));
+        assertThrows(IllegalArgumentException.class, () -> GameLogic.load(s, 1, 3, 2, false, -1, -1, 0));
+        assertThrows(IllegalArgumentException.class, () -> GameLogic.load(s, 1, 1L << 45, 2, false, -1, -1, 0));
+        assertThrows(IllegalArgumentException.class, () -> GameLogic.load(s, 1, 1, 2, false, -1, -1, 1L << 50));
+        // A combo needs a piece of the side to move that neighbours its previous square.
+        assertThrows(IllegalArgumentException.class, () -> GameLogic.load(s, 1, 1L << 10, 1, true, -1, 1, 0));
+        assertThrows(IllegalArgumentException.class, () -> GameLogic.load(s, 1, 1L << 10, 1, true, 0, 1, 0));
+        assertThrows(IllegalArgumentException.class, () -> GameLogic.load(s, 1, 1L << 10, 1, true, 10, 30, 0));
+        assertThrows(IllegalArgumentException.class, () -> GameLogic.load(s, -1, 1L << 10, 1, true, 10, 19, 0));
+    }
+
+    @Test
+    void loadTakesTheSideToMovesView() {
+        GameState s = GameLogic.load(new GameState(), -1, 1L << 10, 1L << 19, true, 19, 28, 1L << 28 | 1L << 19);
+        assertEquals(1L << 19, s.myPieces);
+        assertEquals(1L << 10, s.oppPieces);
+        assertEquals(0, s.lastDir);
+        assertEquals(Zobrist.compute(s), s.zobristHash);
+    }
+
+    @Test
+    void playRecordsEachActionAsStepWould() {
+        AIPlayer ai = player();
+        Game g = new Game();
+        Random rnd = new Random(7);
+        int[] ms = new int[GameLogic.MAX_MOVES];
+        for (int games = 0; games < 5; games++) {
+            int number = g.number;
+            while (!g.over()) {
+                int n = GameLogic.generate(g.state, ms, new long[GameLogic.MAX_MOVES]), aid = ms[rnd.nextInt(n)], ply = g.ply;
+                GameState before = g.state.copy();
+                GameLogic.StepResult step = GameLogic.step(before, aid);
+                assertFalse(g.play(ai, 722));
+                assertEquals(ply, g.ply);
+                assertTrue(g.play(ai, aid));
+                assertEquals(ply + 1, g.ply);
+                assertEquals(aid, g.action);
+                assertEquals(GameLogic.victimsOf(before, aid), g.victims);
+                assertEquals(step.win, g.win);
+                MoveGenerationTest.assertSamePosition(step.state, g.state);
+            }
+            if (g.win) assertFalse(g.play(ai, GameLogic.PASS));
+            g.reset();
+            assertEquals(number + 1, g.number);
+            assertEquals(0, g.ply);
+            assertFalse(g.win);
+            MoveGenerationTest.assertSamePosition(GameLogic.initialState(), g.state);
+        }
+    }
+
+    private static HttpRequest.Builder post(TestServer server, String json) {
+        return server.request("/game/move").POST(HttpRequest.BodyPublishers.ofString(json));
+    }
+
+    @Test
+    void movesReplyWithDeltasAndRefuseAStalePly() throws Exception {
+        Sessions sessions = new Sessions(new TranspositionTable(1), 1);
+        try (TestServer server = new TestServer("/game/move", sessions.route(GameHandlers.move()))) {
+            Game served = sessions.session(Sessions.DEFAULT_ID).game, mirror = new Game();
+            AIPlayer ai = player();
+            int[] ms = new int[GameLogic.MAX_MOVES];
+            for (int i = 0; i < 30 && !mirror.over(); i++) {
+                int aid = ms[i % GameLogic.generate(mirror.state, ms, new long[GameLogic.MAX_MOVES])];
+                // Every other move names the ply it is meant for.
+                String ply = i % 2 == 0 ? "" : ", \"ply\": " + mirror.ply;
+                HttpResponse<String> res = server.send(post(server, "{\"action_id\": " + aid + ply + "}"));
+                assertEquals(200, res.statusCode(), res.body());
+                mirror.play(ai, aid);
+                assertEquals(JsonUtil.writer().raw("{").delta(mirror).raw("}").toString(), res.body());
+                assertEquals(mirror.ply, served.ply);
+            }
+            int at = served.ply;
+            HttpResponse<String> stale = server.send(post(server, "{\"action_id\": 720, \"ply\": " + (at - 1) + "}"));
+            assertEquals(409, stale.statusCode());
+            assertEquals("{\"error\": \"Game is at ply " + at + "\"}", stale.body());
+            assertEquals(409, server.send(post(server, "{\"action_id\": 720, \"ply\": " + (at + 1) + "}")).statusCode());
+            HttpResponse<String> staleBinary = server.send(server.request("/game/move").header("Content-Type", Wire.TYPE)
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(new byte[]{2, (byte) 208, 0, (byte) (at - 1)})));
+            assertEquals(409, staleBinary.statusCode());
+            assertEquals(400, server.send(post(server, "{\"action_id\": 722, \"ply\": " + at + "}")).statusCode());
+            assertEquals(at, served.ply);
+            MoveGenerationTest.assertSamePosition(mirror.state, served.state);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package org.willy;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JsonUtilTest {
+    @BeforeAll
+    static void init() {
+        GameLogic.initTables();
+        Zobrist.init();
+    }
+
+    @Test
+    void readsRequestFieldsAndSkipsTheRest() {
+        JsonUtil.Reader r = JsonUtil.parse("{\"extra\": {\"a\": [1, \"}\"]}, \"board\": [1, -1, 0, 1], \"player\": -1,"
+                + " \"inCombo\": false, \"comboPiece\": null, \"visited\": [3, 44], \"action_id\": 12, \"ply\": 5, \"flag\": true}");
+        assertEquals(0b1001, r.white);
+        assertEquals(0b0010, r.black);
+        assertEquals(-1, r.player);
+        assertEquals(-1, r.comboPiece);
+        assertEquals(1L << 3 | 1L << 44, r.visited);
+        assertEquals(12, r.actionId);
+        assertEquals(5, r.ply);
+        assertTrue(r.hasBoard && r.hasPlayer);
+    }
+
+    @Test
+    void absentFieldsKeepDefaults() {
+        JsonUtil.Reader r = JsonUtil.parse("{}");
+        assertEquals(-1, r.actionId);
+        assertEquals(-1, r.ply);
+        assertFalse(r.hasBoard);
+        assertNull(r.id);
+    }
+
+    @Test
+    void readsSocketMessages() {
+        JsonUtil.Reader r = JsonUtil.parse("{\"op\":\"move\",\"action_id\":85,\"tx\":3}");
+        assertTrue(r.op("move"));
+        assertFalse(r.op("mov"));
+        assertEquals(3, r.tx);
+    }
+
+    @Test
+    void idIsEchoedAsWritten() {
+        for (String id : new String[]{"\"abc\"", "\"a\\\"b\"", "7", "0", "-12", "-0.5e+3", "1E9", "2.25"})
+            assertEquals(id, JsonUtil.parse("{\"id\": " + id + "}").id);
+        assertNull(JsonUtil.parse("{\"id\": true}").id);
+    }
+
+    @Test
+    void rejectsMalformedNumbers() {
+        for (String n : new String[]{"1e", "1e+", "-", "1.", "1.e3", "01", "-x", "1..2"}) {
+            assertThrows(IllegalArgumentException.class, () -> JsonUtil.parse("{\"id\": " + n + "}"), n);
+            assertThrows(IllegalArgumentException.class, () -> JsonUtil.parse("{\"player\": " + n + "}"), n);
+        }
+    }
+
+    @Test
+    void integerFieldsAreWholeAndInRange() {
+        assertEquals(Integer.MAX_VALUE, JsonUtil.parse("{\"action_id\": 2147483647}").actionId);
+        assertEquals(Integer.MIN_VALUE, JsonUtil.parse("{\"player\": -2147483648}").player);
+        assertEquals(0, JsonUtil.parse("{\"player\": -0}").player);
+        for (String n : new String[]{"4294967297", "2147483648", "-2147483649", "99999999999999999999", "1e3", "7.5", "0.0", "1E0"}) {
+            assertThrows(IllegalArgumentException.class, () -> JsonUtil.parse("{\"player\": " + n + "}"), n);
+            assertThrows(IllegalArgumentException.class, () -> JsonUtil.parse("{\"action_id\": " + n + "}"), n);
+        }
+    }
+
+    @Test
+    void rejectsMalformedObjects() {
+        for (String json : new String[]{"", "[]", "{\"board\": [1, 2", "{\"player\" 1}", "{\"player\": 1,}", "{\"id\": \"open}"})
+            assertThrows(IllegalArgumentException.class, () -> JsonUtil.parse(json), json);
+    }
+
+    @Test
+    void writesNumbersAndEscapedStrings() {
+        assertEquals("0,-42,-9223372036854775808", JsonUtil.writer().num(0).raw(",").num(-42).raw(",").num(Long.MIN_VALUE).toString());
+        assertEquals("\"a\\\"b\\\\c\\u000a é 😀\"", JsonUtil.writer().str("a\"b\\c\n é 😀").toString());
+    }
+
+    @Test
+    void writtenPositionsReadBack() {
+        Random rnd = new Random(1);
+        int[] ms = new int[GameLogic.MAX_MOVES];
+        long[] vs = new long[GameLogic.MAX_MOVES];
+        GameState s = GameLogic.initialState();
+        for (int i = 0; i < 300; i++) {
+            String json = JsonUtil.writer().raw("{").position(s).raw("}").toString();
+            GameState back = GameLogic.fromJson(json);
+            assertEquals(s.myPieces, back.myPieces, json);
+            assertEquals(s.oppPieces, back.oppPieces, json);
+            assertEquals(s.inCombo, back.inCombo, json);
+            assertEquals(s.lastDir, back.lastDir, json);
+            assertEquals(s.zobristHash, back.zobristHash, json);
+            int n = GameLogic.generate(s, ms, vs), k = n == 0 ? -1 : rnd.nextInt(n);
+            if (n == 0 || GameLogic.make(s, ms[k], vs[k])) s = GameLogic.initialState();
+        }
+    }
+}
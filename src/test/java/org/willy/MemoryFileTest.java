@@ -0,0 +1,123 @@
+package org.willy;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MemoryFileTest {
+    @TempDir
+    Path dir;
+
+    private static long[] fill(TranspositionTable tt, long seed, int n) {
+        Random rnd = new Random(seed);
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = rnd.nextLong();
+            tt.store(keys[i], 1 + i % 20, i - n / 2, i % 3, i % 721);
+        }
+        return keys;
+    }
+
+    private static void assertStored(TranspositionTable tt, long[] keys) {
+        int n = keys.length;
+        for (int i = 0; i < n; i++) {
+            long e = tt.probe(keys[i]);
+            assertNotEquals(0, e, "entry " + i);
+            assertEquals(1 + i % 20, TranspositionTable.depth(e));
+            assertEquals(i - n / 2, TranspositionTable.score(e));
+            assertEquals(i % 3, TranspositionTable.flag(e));
+            assertEquals(i % 721, TranspositionTable.move(e));
+        }
+    }
+
+    private static int[][] history(int seed) {
+        int[][] h = new int[46][46];
+        for (int r = 0; r < 46; r++) for (int c = 0; c < 46; c++) h[r][c] = seed * r * 46 + c;
+        return h;
+    }
+
+    @Test
+    void memoryFileRoundTrip() throws IOException {
+        TranspositionTable tt = new TranspositionTable(1);
+        long[] keys = fill(tt, 1, 500);
+        Path p = dir.resolve("memory.bin");
+        MemoryFile.save(tt, history(1), 7, p);
+
+        TranspositionTable back = new TranspositionTable(1);
+        int[][] h = new int[46][46];
+        assertEquals(7, MemoryFile.load(back, h, p));
+        assertStored(back, keys);
+        assertArrayEquals(history(1), h);
+
+        // A table of another size takes the entries one by one.
+        TranspositionTable other = new TranspositionTable(2);
+        MemoryFile.load(other, h, p);
+        assertStored(other, keys);
+    }
+
+    @Test
+    void memoryFileRefusesCorruption() throws IOException {
+        TranspositionTable tt = new TranspositionTable(1);
+        fill(tt, 2, 100);
+        Path p = dir.resolve("memory.bin");
+        MemoryFile.save(tt, history(1), 1, p);
+        byte[] b = Files.readAllBytes(p);
+        b[MemoryFile.HEADER + 100] ^= 1;
+        Files.write(p, b);
+        assertThrows(MemoryFile.FormatException.class, () -> MemoryFile.load(new TranspositionTable(1), new int[46][46], p));
+        Files.write(p, new byte[]{1, 2, 3});
+        assertThrows(MemoryFile.FormatException.class, () -> MemoryFile.load(new TranspositionTable(1), new int[46][46], p));
+    }
+
+    @Test
+    void deltaLogReplaysOntoItsSnapshot() throws IOException {
+        TranspositionTable tt = new TranspositionTable(1);
+        long[] before = fill(tt, 3, 200);
+        Path p = dir.resolve("memory.bin"), log = MemoryFile.logPath(p);
+        MemoryFile.save(tt, history(1), 4, p);
+        tt.clearDirty();
+        MemoryFile.startLog(4, tt.length(), log);
+        long[] after = fill(tt, 4, 200);
+        MemoryFile.appendDelta(tt, history(2), log);
+
+        TranspositionTable back = new TranspositionTable(1);
+        int[][] h = new int[46][46];
+        long generation = MemoryFile.load(back, h, p);
+        assertEquals(Files.size(log), MemoryFile.replay(back, h, generation, log));
+        assertStored(back, before);
+        assertStored(back, after);
+        assertArrayEquals(history(2), h);
+
+        assertEquals(-1, MemoryFile.replay(new TranspositionTable(1), h, 5, log));
+        // A torn batch at the end is not applied; the valid prefix stops before it.
+        long valid = Files.size(log);
+        Files.write(log, new byte[]{9, 9, 9}, StandardOpenOption.APPEND);
+        assertEquals(valid, MemoryFile.replay(new TranspositionTable(1), h, 4, log));
+    }
+
+    @Test
+    void saveReplacesALoadedFile() throws IOException {
+        TranspositionTable tt = new TranspositionTable(1);
+        fill(tt, 5, 100);
+        Path p = dir.resolve("memory.bin"), log = MemoryFile.logPath(p);
+        MemoryFile.save(tt, history(1), 1, p);
+        MemoryFile.startLog(1, tt.length(), log);
+        MemoryFile.load(new TranspositionTable(1), new int[46][46], p);
+        MemoryFile.replay(new TranspositionTable(1), new int[46][46], 1, log);
+        // Nothing from the load may still hold the files: both are replaced right after, as a checkpoint does.
+        long[] keys = fill(tt, 6, 100);
+        MemoryFile.save(tt, history(3), 2, p);
+        MemoryFile.startLog(2, tt.length(), log);
+        Files.move(p, dir.resolve("memory.bin.bad"));
+        TranspositionTable back = new TranspositionTable(1);
+        assertEquals(2, MemoryFile.load(back, new int[46][46], dir.resolve("memory.bin.bad")));
+        assertStored(back, keys);
+    }
+}
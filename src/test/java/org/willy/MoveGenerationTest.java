@@ -0,0 +1,59 @@
+package org.willy;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MoveGenerationTest {
+    @BeforeAll
+    static void init() {
+        GameLogic.initTables();
+        Zobrist.init();
+    }
+
+    @Test
+    void victimsOfMatchesGenerate() {
+        Playouts.run(2, 2000, (s, ms, vs, n) -> {
+            for (int i = 0; i < n; i++) assertEquals(vs[i], GameLogic.victimsOf(s, ms[i]), "action " + ms[i]);
+        });
+    }
+
+    @Test
+    void generatedMovesAreDistinct() {
+        Playouts.run(4, 2000, (s, ms, vs, n) -> {
+            boolean[] seen = new boolean[722];
+            for (int i = 0; i < n; i++) {
+                assertFalse(seen[ms[i]], "action " + ms[i]);
+                seen[ms[i]] = true;
+            }
+        });
+    }
+
+    @Test
+    void restoreUndoesMake() {
+        long[] undo = new long[GameState.UNDO];
+        Playouts.run(3, 2000, (s, ms, vs, n) -> {
+            for (int i = 0; i < n; i++) {
+                GameState before = s.copy();
+                s.save(undo, 0);
+                GameLogic.make(s, ms[i], vs[i]);
+                s.restore(undo, 0);
+                assertSamePosition(before, s);
+            }
+        });
+    }
+
+    // Every field make touches, the hash included.
+    static void assertSamePosition(GameState a, GameState b) {
+        assertEquals(a.myPieces, b.myPieces);
+        assertEquals(a.oppPieces, b.oppPieces);
+        assertEquals(a.player, b.player);
+        assertEquals(a.inCombo, b.inCombo);
+        assertEquals(a.comboPiece, b.comboPiece);
+        assertEquals(a.prevPos, b.prevPos);
+        assertEquals(a.lastDir, b.lastDir);
+        assertEquals(a.visitedMask, b.visitedMask);
+        assertEquals(a.zobristHash, b.zobristHash);
+    }
+}
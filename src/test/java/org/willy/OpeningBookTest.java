@@ -0,0 +1,34 @@
+package org.willy;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OpeningBookTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void openingBookRoundTrip() throws IOException {
+        long[][] entries = {{30, -5, 99, 8}, {-7, 120, 365, 10}, {12, 0, 720, 6}};
+        Path p = dir.resolve("book.bin");
+        OpeningBook.write(p, entries, 10);
+        OpeningBook b = OpeningBook.load(p);
+        assertEquals(3, b.size());
+        for (long[] e : entries) {
+            int i = b.find(e[0]);
+            assertTrue(i >= 0);
+            assertEquals(e[1], b.score(i));
+            assertEquals(e[2], b.move(i));
+            assertEquals(e[3], b.depth(i));
+        }
+        assertEquals(-1, b.find(13));
+        Files.write(p, new byte[20]);
+        assertThrows(IOException.class, () -> OpeningBook.load(p));
+    }
+}
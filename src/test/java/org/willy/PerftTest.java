@@ -0,0 +1,28 @@
+package org.willy;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// The ray and capture-line tables against Perft.Ref, a plain array walk over the board.
+class PerftTest {
+    @BeforeAll
+    static void init() {
+        GameLogic.initTables();
+        Zobrist.init();
+    }
+
+    @Test
+    void tablesAgreeWithTheReferenceFromTheStart() {
+        assertNull(Perft.verify(GameLogic.initialState(), 5));
+    }
+
+    @Test
+    void tablesAgreeWithTheReferenceInPlayedPositions() {
+        int[] visited = new int[1];
+        Playouts.run(5, 400, (s, ms, vs, n) -> {
+            if (visited[0]++ % 20 == 0) assertNull(Perft.verify(s, 3));
+        });
+    }
+}
@@ -0,0 +1,24 @@
+package org.willy;
+
+import java.util.Random;
+
+// Random games from the initial position, starting over whenever one ends.
+class Playouts {
+    interface Visitor {
+        // Every position reached, before its move is made.
+        void visit(GameState s, int[] moves, long[] victims, int n);
+    }
+
+    static void run(long seed, int actions, Visitor v) {
+        Random rnd = new Random(seed);
+        int[] ms = new int[GameLogic.MAX_MOVES];
+        long[] vs = new long[GameLogic.MAX_MOVES];
+        GameState s = GameLogic.initialState();
+        for (int i = 0; i < actions; i++) {
+            int n = GameLogic.generate(s, ms, vs);
+            v.visit(s, ms, vs, n);
+            int k = n == 0 ? -1 : rnd.nextInt(n);
+            if (n == 0 || GameLogic.make(s, ms[k], vs[k])) s = GameLogic.initialState();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package org.willy;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PonderTest {
+    @BeforeAll
+    static void init() {
+        GameLogic.initTables();
+        Zobrist.init();
+        if (FanoronaServer.searches == null) FanoronaServer.searches = new SearchExecutor(2, 8);
+    }
+
+    // Plays the AI's turns from the initial position until it ponders, then the opponent's turn along the line
+    // the ponder predicts, telling the AI about each move. Returns the position the ponder searches.
+    private GameState predictedHit(AIPlayer ai) {
+        GameState s = GameLogic.initialState();
+        int me = s.player;
+        int[] line = null, legal = new int[GameLogic.MAX_MOVES];
+        long[] victims = new long[GameLogic.MAX_MOVES];
+        for (int turn = 0; line == null; turn++) {
+            assertTrue(turn < 10, "never pondered");
+            while (s.player == me) s = GameLogic.step(s, ai.think(s, 200).bestMove).state;
+            line = ai.ponderLine();
+            // Without a predicted line, the opponent plays its first legal move.
+            if (line == null) while (s.player != me) {
+                GameLogic.generate(s, legal, victims);
+                ai.analyzeHumanMove(legal[0]);
+                s = GameLogic.step(s, legal[0]).state;
+            }
+        }
+        for (int m : line) {
+            assertTrue(GameLogic.legal(s, m));
+            ai.analyzeHumanMove(m);
+            s = GameLogic.step(s, m).state;
+        }
+        assertEquals(me, s.player);
+        // A ponder still waiting for its worker is not promoted.
+        try {
+            Thread.sleep(100);
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+        return s;
+    }
+
+    private final TranspositionTable tt = new TranspositionTable(16);
+
+    private AIPlayer ai;
+
+    // A promotion ends with the AI's move, which starts the next ponder; it must not hold a worker the next test needs.
+    @AfterEach
+    void stopPondering() {
+        if (ai != null) ai.resetGame();
+    }
+
+    private AIPlayer player() {
+        ai = new AIPlayer(tt);
+        ai.verbose = false;
+        ai.useBook = false;
+        ai.pondering = true;
+        return ai;
+    }
+
+    @Test
+    void stopEndsAPromotedPonderWithItsBestMove() throws Exception {
+        AIPlayer ai = player();
+        GameState root = predictedHit(ai);
+        AtomicInteger iterations = new AtomicInteger();
+        CompletableFuture<AIPlayer.AIResult> done = new CompletableFuture<>();
+        AIPlayer.StopFlag flag;
+        synchronized (ai) {
+            flag = ai.promotePonder(root, 60_000, (depth, score, move, nodes, elapsed) -> iterations.incrementAndGet(), done::complete);
+        }
+        assertNotNull(flag);
+        long until = System.currentTimeMillis() + 10_000;
+        while (iterations.get() == 0 && System.currentTimeMillis() < until) Thread.sleep(10);
+        assertTrue(iterations.get() > 0, "no iterations after promotion");
+        flag.set = true;
+        AIPlayer.AIResult res = done.get(5, TimeUnit.SECONDS);
+        assertNotNull(res);
+        assertTrue(GameLogic.legal(root, res.bestMove));
+    }
+
+    @Test
+    void cancelDiscardsAPromotedPonder() throws Exception {
+        AIPlayer ai = player();
+        GameState root = predictedHit(ai);
+        CompletableFuture<AIPlayer.AIResult> done = new CompletableFuture<>();
+        AIPlayer.StopFlag flag;
+        synchronized (ai) {
+            flag = ai.promotePonder(root, 60_000, null, done::complete);
+        }
+        assertNotNull(flag);
+        flag.cancelled = true;
+        flag.set = true;
+        assertNull(done.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void anotherPositionIsNoHit() {
+        AIPlayer ai = player();
+        predictedHit(ai);
+        synchronized (ai) {
+            assertNull(ai.promotePonder(GameLogic.initialState(), 1000, null, res -> fail()));
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package org.willy;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.http.HttpResponse;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SessionsTest {
+    private final TranspositionTable tt = new TranspositionTable(1);
+
+    @Test
+    void idsFallBackToTheDefault() {
+        assertEquals("a", Sessions.idOf("a"));
+        assertEquals(Sessions.DEFAULT_ID, Sessions.idOf((String) null));
+        assertEquals(Sessions.DEFAULT_ID, Sessions.idOf(""));
+        assertEquals(Sessions.DEFAULT_ID, Sessions.idOf("x".repeat(65)));
+    }
+
+    @Test
+    void eachIdHasItsOwnEngineUpToTheCap() {
+        Sessions sessions = new Sessions(tt, 2);
+        Sessions.Session a = sessions.session("a");
+        assertSame(a, sessions.session("a"));
+        assertNotSame(a.ai, sessions.session("b").ai);
+        assertNull(sessions.session("c"));
+        assertSame(a, sessions.session("a"));
+        assertEquals(2, sessions.size());
+    }
+
+    @Test
+    void evictsIdleSessionsWithoutAnOpenChannel() {
+        Sessions sessions = new Sessions(tt, 10);
+        Sessions.Session idle = sessions.session("idle"), open = sessions.session("open");
+        sessions.session("busy");
+        idle.lastSeen = open.lastSeen = 0;
+        open.channels.incrementAndGet();
+        sessions.evictIdle(60_000);
+        assertEquals(2, sessions.size());
+        assertSame(open, sessions.session("open"));
+        assertNotSame(idle, sessions.session("idle"));
+    }
+
+    @Test
+    void routesByHeaderOrQuery() throws Exception {
+        Sessions sessions = new Sessions(tt, 3);
+        try (TestServer server = new TestServer("/who", sessions.route((ex, ai, game) -> {
+            if (HttpUtil.query(ex, "bad") != null) throw new IllegalArgumentException("bad request");
+            HttpUtil.sendJson(ex, Integer.toString(System.identityHashCode(ai)));
+        }))) {
+            String a = server.send(server.request("/who").header("X-Game-Id", "a")).body();
+            assertEquals(a, server.send(server.request("/who?game=a")).body());
+            assertNotEquals(a, server.send(server.request("/who?game=b")).body());
+            assertEquals(server.send(server.request("/who")).body(), server.send(server.request("/who?game=")).body());
+            assertEquals(503, server.send(server.request("/who?game=c")).statusCode());
+            HttpResponse<String> bad = server.send(server.request("/who?game=a&bad=1"));
+            assertEquals(400, bad.statusCode());
+            assertEquals("{\"error\": \"bad request\"}", bad.body());
+        }
+    }
+}
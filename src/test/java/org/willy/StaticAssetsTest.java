@@ -0,0 +1,99 @@
+package org.willy;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StaticAssetsTest {
+    private static TestServer server;
+    private static byte[] page;
+
+    @BeforeAll
+    static void start() throws IOException {
+        server = new TestServer("/", new StaticAssets().add("/", "game.html", "text/html; charset=utf-8"));
+        try (InputStream is = StaticAssetsTest.class.getClassLoader().getResourceAsStream("game.html")) {
+            page = is.readAllBytes();
+        }
+    }
+
+    @AfterAll
+    static void stop() {
+        server.close();
+    }
+
+    private static HttpResponse<byte[]> get(String acceptEncoding, String ifNoneMatch) throws Exception {
+        HttpRequest.Builder b = server.request("/");
+        if (acceptEncoding != null) b.header("Accept-Encoding", acceptEncoding);
+        if (ifNoneMatch != null) b.header("If-None-Match", ifNoneMatch);
+        return server.sendBytes(b);
+    }
+
+    private static String encodingOf(HttpResponse<?> res) {
+        return res.headers().firstValue("Content-Encoding").orElse("identity");
+    }
+
+    private static byte[] decoded(HttpResponse<byte[]> res) throws IOException {
+        InputStream in = new ByteArrayInputStream(res.body());
+        return switch (encodingOf(res)) {
+            case "gzip" -> new GZIPInputStream(in).readAllBytes();
+            case "deflate" -> new InflaterInputStream(in).readAllBytes();
+            default -> res.body();
+        };
+    }
+
+    @Test
+    void servesTheFirstAcceptedEncoding() throws Exception {
+        String[][] cases = {{null, "identity"}, {"gzip, deflate, br", "gzip"}, {"deflate, gzip", "gzip"}, {"deflate", "deflate"},
+                {"br", "identity"}, {"gzip;q=0, deflate", "deflate"}, {"GZIP; q=0.5", "gzip"}, {"gzip;q=0.0, deflate;q=0", "identity"},
+                {"gzip;q=x", "identity"}, {"identity", "identity"}};
+        for (String[] c : cases) {
+            HttpResponse<byte[]> res = get(c[0], null);
+            assertEquals(200, res.statusCode());
+            assertEquals(c[1], encodingOf(res), c[0]);
+            assertArrayEquals(page, decoded(res), c[0]);
+            assertEquals("text/html; charset=utf-8", res.headers().firstValue("Content-Type").orElse(null));
+            assertEquals("Accept-Encoding", res.headers().firstValue("Vary").orElse(null));
+            assertEquals("no-cache", res.headers().firstValue("Cache-Control").orElse(null));
+        }
+        assertTrue(get("gzip", null).body().length < page.length);
+    }
+
+    @Test
+    void notModifiedOnlyForTheServedVariant() throws Exception {
+        String gzip = get("gzip", null).headers().firstValue("ETag").orElseThrow();
+        String identity = get(null, null).headers().firstValue("ETag").orElseThrow();
+        assertNotEquals(gzip, identity);
+        assertEquals(304, get("gzip", gzip).statusCode());
+        assertEquals(304, get("gzip", "\"other\", W/" + gzip).statusCode());
+        assertEquals(200, get(null, gzip).statusCode());
+        assertEquals(200, get("gzip", identity).statusCode());
+        assertEquals(304, get(null, identity).statusCode());
+        assertEquals(304, get("deflate", "*").statusCode());
+        HttpResponse<byte[]> res = get("gzip", gzip);
+        assertEquals(0, res.body().length);
+        assertEquals(gzip, res.headers().firstValue("ETag").orElse(null));
+    }
+
+    @Test
+    void headGetsTheLengthAndOtherMethodsAreRefused() throws Exception {
+        HttpResponse<byte[]> head = server.sendBytes(server.request("/").header("Accept-Encoding", "gzip")
+                .method("HEAD", HttpRequest.BodyPublishers.noBody()));
+        assertEquals(200, head.statusCode());
+        assertEquals(0, head.body().length);
+        assertEquals(get("gzip", null).body().length, Integer.parseInt(head.headers().firstValue("Content-Length").orElseThrow()));
+        HttpResponse<byte[]> post = server.sendBytes(server.request("/").POST(HttpRequest.BodyPublishers.ofString("x")));
+        assertEquals(405, post.statusCode());
+        assertEquals("GET, HEAD", post.headers().firstValue("Allow").orElse(null));
+        assertEquals(404, server.sendBytes(server.request("/missing.js")).statusCode());
+    }
+}
@@ -0,0 +1,78 @@
+package org.willy;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TablebaseTest {
+    @TempDir
+    Path dir;
+
+    @BeforeAll
+    static void init() {
+        GameLogic.initTables();
+        Zobrist.init();
+    }
+
+    @Test
+    void tablebaseRoundTrip() throws Exception {
+        TablebaseBuilder builder = new TablebaseBuilder(2);
+        builder.build(new ForkJoinPool(1));
+        Path p = dir.resolve("tb.bin");
+        builder.write(p);
+        Tablebase tb = Tablebase.load(p);
+        // One piece each: whoever can capture takes the last piece and wins.
+        GameState s = new GameState();
+        s.player = 1;
+        for (int m = 0; m < GameLogic.NUM_POS; m++) {
+            for (int o = 0; o < GameLogic.NUM_POS; o++) {
+                if (m == o) continue;
+                s.myPieces = 1L << m;
+                s.oppPieces = 1L << o;
+                int v = tb.probe(s.myPieces, s.oppPieces);
+                assertNotEquals(Tablebase.NONE, v);
+                if (GameLogic.mustCapture(s)) assertTrue(v > 0, m + " vs " + o);
+            }
+        }
+        assertEquals(Tablebase.NONE, tb.probe(3, 4 | 8));
+        Files.write(p, new byte[16]);
+        assertThrows(IOException.class, () -> Tablebase.load(p));
+    }
+
+    @Test
+    void indexAndSquaresAreInverse() {
+        Random rnd = new Random(1);
+        for (int m = 1; m < Tablebase.MAX_PIECES; m++) {
+            for (int o = 1; m + o <= Tablebase.MAX_PIECES; o++) {
+                long size = Tablebase.size(m, o);
+                for (int i = 0; i < 200; i++) {
+                    long idx = i == 0 ? size - 1 : Math.floorMod(rnd.nextLong(), size);
+                    long[] sq = Tablebase.squares(idx, m, o);
+                    assertEquals(m, Long.bitCount(sq[0]));
+                    assertEquals(o, Long.bitCount(sq[1]));
+                    assertEquals(0, sq[0] & sq[1]);
+                    assertEquals(idx, Tablebase.index(sq[0], sq[1], o));
+                }
+            }
+        }
+    }
+
+    @Test
+    void refusesMorePiecesThanATableCanHold() throws IOException {
+        ByteBuffer h = ByteBuffer.allocate(Tablebase.HEADER).order(ByteOrder.LITTLE_ENDIAN);
+        h.putInt(Tablebase.MAGIC).putInt(Tablebase.VERSION).putInt(Tablebase.MAX_PIECES + 1).putInt(0);
+        Path p = dir.resolve("tb.bin");
+        Files.write(p, h.array());
+        assertThrows(IOException.class, () -> Tablebase.load(p));
+    }
+}
@@ -0,0 +1,91 @@
+package org.willy;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TranspositionTableTest {
+    // Keys that differ only above the index bits share a bucket.
+    private static long key(int i) {
+        return 12345L | (long) (i + 1) << 40;
+    }
+
+    @Test
+    void packsEveryField() {
+        TranspositionTable tt = new TranspositionTable(1);
+        int[][] cases = {{0, 0, TranspositionTable.EXACT, -1}, {255, FanoronaServer.MATE_SCORE, TranspositionTable.LOWER, 721},
+                {17, -FanoronaServer.INF, TranspositionTable.UPPER, 719}, {1, -1, TranspositionTable.EXACT, 0}};
+        for (int i = 0; i < cases.length; i++) tt.store(i * 7919L, cases[i][0], cases[i][1], cases[i][2], cases[i][3]);
+        for (int i = 0; i < cases.length; i++) {
+            long e = tt.probe(i * 7919L);
+            assertNotEquals(0, e);
+            assertEquals(cases[i][0], TranspositionTable.depth(e));
+            assertEquals(cases[i][1], TranspositionTable.score(e));
+            assertEquals(cases[i][2], TranspositionTable.flag(e));
+            assertEquals(cases[i][3], TranspositionTable.move(e));
+        }
+        assertEquals(0, tt.probe(99));
+        assertEquals(cases.length, tt.size());
+    }
+
+    @Test
+    void clampsDepth() {
+        TranspositionTable tt = new TranspositionTable(1);
+        tt.store(1, 300, 0, TranspositionTable.EXACT, 0);
+        tt.store(2, -3, 0, TranspositionTable.EXACT, 0);
+        assertEquals(255, TranspositionTable.depth(tt.probe(1)));
+        assertEquals(0, TranspositionTable.depth(tt.probe(2)));
+    }
+
+    @Test
+    void fullBucketReplacesTheShallowest() {
+        TranspositionTable tt = new TranspositionTable(1);
+        int[] depths = {5, 3, 9, 7};
+        for (int i = 0; i < 4; i++) tt.store(key(i), depths[i], i, TranspositionTable.EXACT, i);
+        tt.store(key(4), 1, 4, TranspositionTable.EXACT, 4);
+        assertEquals(0, tt.probe(key(1)));
+        for (int i : new int[]{0, 2, 3, 4}) assertEquals(i, TranspositionTable.score(tt.probe(key(i))));
+        assertEquals(4, tt.size());
+    }
+
+    @Test
+    void olderSearchesGoFirst() {
+        TranspositionTable tt = new TranspositionTable(1);
+        for (int i = 0; i < 3; i++) tt.store(key(i), 20, i, TranspositionTable.EXACT, i);
+        tt.newSearch();
+        tt.store(key(3), 13, 3, TranspositionTable.EXACT, 3);
+        tt.store(key(4), 1, 4, TranspositionTable.EXACT, 4);
+        // Each search of age costs 8 plies of depth: 20 stored one search ago ranks below 13 stored now.
+        assertEquals(0, tt.probe(key(0)));
+        for (int i = 1; i < 5; i++) assertNotEquals(0, tt.probe(key(i)));
+    }
+
+    @Test
+    void sameKeyKeepsDeeperBoundsAndItsMove() {
+        TranspositionTable tt = new TranspositionTable(1);
+        tt.store(7, 10, 50, TranspositionTable.LOWER, 5);
+        tt.store(7, 6, 60, TranspositionTable.UPPER, 8);
+        assertEquals(10, TranspositionTable.depth(tt.probe(7)));
+        tt.store(7, 6, 70, TranspositionTable.EXACT, -1);
+        long e = tt.probe(7);
+        assertEquals(70, TranspositionTable.score(e));
+        assertEquals(5, TranspositionTable.move(e));
+        tt.store(7, 12, 80, TranspositionTable.LOWER, 9);
+        tt.newSearch();
+        tt.store(7, 2, 90, TranspositionTable.UPPER, 3);
+        assertEquals(90, TranspositionTable.score(tt.probe(7)));
+        assertEquals(1, tt.size());
+    }
+
+    @Test
+    void drainVisitsEachStoredBucketOnce() {
+        TranspositionTable tt = new TranspositionTable(1);
+        tt.store(key(0), 1, 0, TranspositionTable.EXACT, 0);
+        tt.store(key(1), 1, 0, TranspositionTable.EXACT, 0);
+        tt.store(1, 1, 0, TranspositionTable.EXACT, 0);
+        int[] seen = new int[1];
+        assertEquals(2, tt.drainDirty((index, slots, off) -> seen[0]++));
+        assertEquals(2, seen[0]);
+        assertEquals(0, tt.drainDirty((index, slots, off) -> fail()));
+    }
+}
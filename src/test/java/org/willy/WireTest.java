@@ -0,0 +1,107 @@
+package org.willy;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WireTest {
+    @BeforeAll
+    static void init() {
+        GameLogic.initTables();
+        Zobrist.init();
+    }
+
+    // A request position as a client writes it, followed by the action if there is one.
+    private static byte[] request(GameState s, int action) {
+        ByteBuffer b = ByteBuffer.allocate(Wire.POSITION + (action < 0 ? 0 : 2));
+        long white = s.player == 1 ? s.myPieces : s.oppPieces, black = s.player == 1 ? s.oppPieces : s.myPieces;
+        b.put((byte) s.player).put((byte) (s.inCombo ? 1 : 0)).put((byte) s.comboPiece).put((byte) s.prevPos);
+        b.putLong(white).putLong(black).putLong(s.visitedMask);
+        if (action >= 0) b.putShort((short) action);
+        return b.array();
+    }
+
+    private static HttpRequest.Builder post(TestServer server, String path, byte[] body) {
+        return server.request(path).header("Content-Type", Wire.TYPE).header("Accept", Wire.TYPE)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body));
+    }
+
+    private static List<GameState> positions(int count) {
+        List<GameState> out = new ArrayList<>();
+        Playouts.run(5, count, (s, ms, vs, n) -> out.add(s.copy()));
+        return out;
+    }
+
+    @Test
+    void positionsAndMovesRoundTrip() throws Exception {
+        try (TestServer server = new TestServer("/echo", ex -> {
+            Wire w = Wire.read(ex);
+            Wire.writer().position(w.state).u16(w.actionId & 0xFFFF).moves(w.state).send(ex);
+        })) {
+            int[] ms = new int[GameLogic.MAX_MOVES];
+            long[] vs = new long[GameLogic.MAX_MOVES];
+            int i = 0;
+            for (GameState s : positions(60)) {
+                byte[] sent = request(s, i % 2 == 0 ? -1 : i % 721);
+                HttpResponse<byte[]> res = server.sendBytes(post(server, "/echo", sent));
+                assertEquals(Wire.TYPE, res.headers().firstValue("Content-Type").orElse(null));
+                ByteBuffer b = ByteBuffer.wrap(res.body());
+                byte[] position = new byte[Wire.POSITION];
+                b.get(position);
+                assertArrayEquals(Arrays.copyOf(sent, Wire.POSITION), position);
+                assertEquals(i % 2 == 0 ? 0xFFFF : i % 721, b.getShort() & 0xFFFF);
+                int n = GameLogic.generate(s, ms, vs);
+                assertEquals(n, b.getShort() & 0xFFFF);
+                for (int k = 0; k < n; k++) {
+                    assertEquals(ms[k], b.getShort() & 0xFFFF);
+                    assertEquals(vs[k], b.getLong());
+                }
+                assertFalse(b.hasRemaining());
+                i++;
+            }
+        }
+    }
+
+    @Test
+    void moveRepliesWithTheStepResult() throws Exception {
+        Sessions sessions = new Sessions(new TranspositionTable(1), 1);
+        try (TestServer server = new TestServer("/move", sessions.route(new MoveHandler()))) {
+            int i = 0;
+            for (GameState s : positions(40)) {
+                int[] ms = new int[GameLogic.MAX_MOVES];
+                int n = GameLogic.generate(s, ms, new long[GameLogic.MAX_MOVES]);
+                if (n == 0) continue;
+                int aid = ms[i++ % n];
+                GameLogic.StepResult step = GameLogic.step(s, aid);
+                byte[] body = server.sendBytes(post(server, "/move", request(s, aid))).body();
+                assertArrayEquals(request(step.state, -1), Arrays.copyOf(body, Wire.POSITION));
+                assertEquals(step.win ? 1 : 0, body[Wire.POSITION]);
+                assertEquals(Wire.POSITION + 1, body.length);
+            }
+            HttpResponse<String> shortBody = server.send(post(server, "/move", new byte[Wire.POSITION - 1]));
+            assertEquals(400, shortBody.statusCode());
+        }
+    }
+
+    @Test
+    void gameActionsCarryAnOptionalPly() throws Exception {
+        Sessions sessions = new Sessions(new TranspositionTable(1), 1);
+        try (TestServer server = new TestServer("/act", sessions.route((ex, ai) -> {
+            Wire w = Wire.action(ex);
+            HttpUtil.sendJson(ex, w.actionId + " " + w.ply);
+        }))) {
+            assertEquals("720 -1", server.send(post(server, "/act", new byte[]{2, (byte) 208})).body());
+            assertEquals("721 65535", server.send(post(server, "/act", new byte[]{2, (byte) 209, -1, -1})).body());
+            assertEquals("0 3", server.send(post(server, "/act", new byte[]{0, 0, 0, 3})).body());
+            assertEquals(400, server.send(post(server, "/act", new byte[]{1})).statusCode());
+        }
+    }
+}
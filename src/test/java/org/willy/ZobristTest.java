@@ -0,0 +1,53 @@
+package org.willy;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ZobristTest {
+    @BeforeAll
+    static void init() {
+        GameLogic.initTables();
+        Zobrist.init();
+    }
+
+    @Test
+    void makeUpdatesTheHash() {
+        long[] undo = new long[GameState.UNDO];
+        Playouts.run(3, 2000, (s, ms, vs, n) -> {
+            for (int i = 0; i < n; i++) {
+                s.save(undo, 0);
+                GameLogic.make(s, ms[i], vs[i]);
+                assertEquals(Zobrist.compute(s), s.zobristHash, "after " + GameLogic.describe(ms[i]));
+                s.restore(undo, 0);
+            }
+        });
+    }
+
+    @Test
+    void passHandsTheTurnOverAndBack() {
+        GameState s = GameLogic.initialState(), before = s.copy();
+        GameLogic.make(s, GameLogic.PASS, 0);
+        assertEquals(-before.player, s.player);
+        assertEquals(Zobrist.compute(s), s.zobristHash);
+        GameLogic.make(s, GameLogic.PASS, 0);
+        MoveGenerationTest.assertSamePosition(before, s);
+    }
+
+    @Test
+    void comboStateIsPartOfTheKey() {
+        long white = 1L << 10 | 1L << 30, black = 1L << 19;
+        Set<Long> keys = new HashSet<>();
+        keys.add(GameLogic.load(new GameState(), -1, white, black, false, -1, -1, 0).zobristHash);
+        keys.add(GameLogic.load(new GameState(), 1, white, black, false, -1, -1, 0).zobristHash);
+        keys.add(GameLogic.load(new GameState(), -1, white, black, true, 19, 28, 1L << 28).zobristHash);
+        keys.add(GameLogic.load(new GameState(), -1, white, black, true, 19, 28, 1L << 28 | 1L << 37).zobristHash);
+        // Same squares, another forbidden direction.
+        keys.add(GameLogic.load(new GameState(), -1, white, black, true, 19, 20, 1L << 28).zobristHash);
+        assertEquals(5, keys.size());
+    }
+}